@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Reads and writes a resolved local 'depth' environments up the chain from the innermost one,
+// what every non-global variable access in the tree and closure engines comes down to.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvironmentBenchmark {
+    @Param({"0", "1", "2", "4", "8", "16"})
+    public int depth;
+
+    private Environment innermost;
+    private final Object value = 1.0;
+
+    @Setup
+    public void setup() {
+        Environment environment = new Environment();
+        for (int i = 0; i <= depth; i++) {
+            environment = new Environment(environment, 4);
+            environment.define(0, (double)i);
+        }
+        innermost = environment;
+    }
+
+    @Benchmark
+    public Object getAt() {
+        return innermost.getAt(depth, 0);
+    }
+
+    @Benchmark
+    public void assignAt() {
+        innermost.assignAt(depth, 1, value);
+    }
+}
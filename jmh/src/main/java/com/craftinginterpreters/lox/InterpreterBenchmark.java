@@ -0,0 +1,78 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Runs the canonical programs in bench/ on each engine; an operation is one run of the whole program.
+// The program is compiled for the engine once, and the JIT is off so the engines themselves are measured,
+// as tool/Benchmark does.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({"arithmetic", "closures", "fib", "inheritance", "instances", "loops", "methods", "objects", "strings",
+            "trees", "zoo"})
+    public String program;
+
+    @Param({"tree", "closure", "vm"})
+    public String engine;
+
+    private Runnable run;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws IOException {
+        JitCompiler.enabled = false;
+        List<Stmt> statements = Programs.compile(Programs.read(program));
+        Interpreter interpreter = new Interpreter();
+        switch (engine) {
+            case "tree":
+                run = () -> interpreter.interpret(statements);
+                break;
+            case "closure":
+                StmtNode compiled = new NodeCompiler(interpreter).compile(statements);
+                run = () -> compiled.execute(interpreter.globals);
+                break;
+            case "vm":
+                VM vm = new VM();
+                VmFunction script = new VmCompiler().compile(statements);
+                run = () -> vm.interpret(script);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine '" + engine + "'.");
+        }
+
+        // the programs print their results
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public void run() {
+        run.run();
+    }
+}
@@ -0,0 +1,97 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+// The Scanner's keyword recognition against the map it replaced. The map interned every identifier-like lexeme
+// and looked its String up among the keywords; the switch recognizes keywords on the characters and only
+// interns the other identifiers. An operation is one lexeme of an identifier-dense corpus, 40% of them keywords,
+// each held in a StringBuilder the way the Scanner holds its lexeme.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeywordBenchmark {
+    private static final int LEXEMES = 10000;
+
+    private static final Map<String, TokenType> KEYWORDS = new HashMap<>();
+
+    static {
+        KEYWORDS.put("and", AND);
+        KEYWORDS.put("class", CLASS);
+        KEYWORDS.put("else", ELSE);
+        KEYWORDS.put("false", FALSE);
+        KEYWORDS.put("for", FOR);
+        KEYWORDS.put("fun", FUN);
+        KEYWORDS.put("if", IF);
+        KEYWORDS.put("import", IMPORT);
+        KEYWORDS.put("nil", NIL);
+        KEYWORDS.put("or", OR);
+        KEYWORDS.put("print", PRINT);
+        KEYWORDS.put("return", RETURN);
+        KEYWORDS.put("super", SUPER);
+        KEYWORDS.put("this", THIS);
+        KEYWORDS.put("true", TRUE);
+        KEYWORDS.put("var", VAR);
+        KEYWORDS.put("while", WHILE);
+    }
+
+    // names that share their first characters with a keyword, and short ones, as real programs have them
+    private static final String[] IDENTIFIERS = {
+        "a", "i", "n", "x", "y", "count", "each", "fib", "format", "fun2", "item", "iffy", "name", "other",
+        "point", "result", "self", "total", "value", "width", "classes", "forEach", "thisOne", "truth",
+        "variable", "whiles", "returned", "superb", "node", "left", "right", "accumulator"
+    };
+
+    private final StringBuilder[] lexemes = new StringBuilder[LEXEMES];
+
+    @Setup
+    public void setup() {
+        String[] keywords = KEYWORDS.keySet().toArray(new String[0]);
+        Random random = new Random(42);
+        for (int i = 0; i < LEXEMES; i++) {
+            String lexeme = random.nextInt(10) < 4
+                ? keywords[random.nextInt(keywords.length)]
+                : IDENTIFIERS[random.nextInt(IDENTIFIERS.length)];
+            lexemes[i] = new StringBuilder(lexeme);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LEXEMES)
+    public void characterSwitch(Blackhole blackhole) {
+        for (StringBuilder lexeme : lexemes) {
+            TokenType type = Scanner.keywordType(lexeme);
+            blackhole.consume(type != null ? type : Symbol.intern(lexeme));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LEXEMES)
+    public void internedMap(Blackhole blackhole) {
+        for (StringBuilder lexeme : lexemes) {
+            Symbol symbol = Symbol.intern(lexeme);
+            TokenType type = KEYWORDS.get(symbol.name);
+            blackhole.consume(type != null ? type : symbol);
+        }
+    }
+}
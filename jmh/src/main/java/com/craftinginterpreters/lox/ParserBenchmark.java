@@ -0,0 +1,60 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Parses a program of about 1 MB. The Scanner runs one window of tokens ahead of the Parser,
+// so this includes scanning; the difference to ScannerBenchmark is the Parser's share.
+// The 'nodes' counter is the statements and expressions built per second.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"arithmetic", "fib", "loops", "methods", "objects"})
+    public String program;
+
+    private String source;
+    private int nodes;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nodes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        source = Programs.repeat(program, 1 << 20);
+        nodes = Programs.countNodes(Programs.parse(source));
+    }
+
+    @Benchmark
+    public List<Stmt> parse(Counters counters) {
+        List<Stmt> statements = new Parser(new Scanner(source)).parse();
+        counters.nodes += nodes;
+        return statements;
+    }
+}
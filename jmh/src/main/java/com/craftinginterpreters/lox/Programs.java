@@ -0,0 +1,67 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+// The programs the benchmarks work on: the canonical ones in bench/, read relative to the project's root,
+// which is the working directory the jmh task runs in.
+final class Programs {
+    private Programs() {
+    }
+
+    static String read(String name) throws IOException {
+        return Files.readString(Paths.get("bench", name + ".lox"));
+    }
+
+    // the program repeated until it is at least 'length' characters long, so an operation of the front end
+    // benchmarks works on a realistic amount of source instead of a few hundred characters
+    static String repeat(String name, int length) throws IOException {
+        String program = read(name);
+        StringBuilder source = new StringBuilder(length + program.length());
+        while (source.length() < length) {
+            source.append(program).append('\n');
+        }
+        return source.toString();
+    }
+
+    static List<Stmt> parse(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source)).parse();
+        if (Lox.hadError) throw new IllegalStateException("The program doesn't parse.");
+        return statements;
+    }
+
+    // scanned, parsed, resolved and optimized, what the ModuleLoader hands to the engines
+    static List<Stmt> compile(String source) {
+        List<Stmt> statements = parse(source);
+        Resolver resolver = new Resolver();
+        resolver.resolve(statements);
+        if (resolver.hadError) throw new IllegalStateException("The program doesn't resolve.");
+        return new Optimizer().optimize(statements, "benchmark");
+    }
+
+    // the number of statements and expressions in a program
+    static int countNodes(List<Stmt> statements) {
+        NodeCounter counter = new NodeCounter();
+        counter.rewrite(statements, new Optimizer.Stats());
+        return counter.nodes;
+    }
+
+    // walks the tree like an optimizer pass that never changes anything
+    private static final class NodeCounter extends AstRewriter {
+        int nodes = 0;
+
+        @Override
+        protected Stmt rewrite(Stmt stmt) {
+            nodes++;
+            return super.rewrite(stmt);
+        }
+
+        @Override
+        protected Expr rewrite(Expr expr) {
+            nodes++;
+            return super.rewrite(expr);
+        }
+    }
+}
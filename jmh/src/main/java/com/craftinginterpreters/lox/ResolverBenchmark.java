@@ -0,0 +1,44 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Resolves a parsed program of about 1 MB. Resolving fills in the same annotations every time,
+// so one tree serves every operation.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolverBenchmark {
+    @Param({"arithmetic", "fib", "loops", "methods", "objects"})
+    public String program;
+
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() throws IOException {
+        statements = Programs.parse(Programs.repeat(program, 1 << 20));
+    }
+
+    @Benchmark
+    public Resolver resolve() {
+        Resolver resolver = new Resolver();
+        resolver.resolve(statements);
+        return resolver;
+    }
+}
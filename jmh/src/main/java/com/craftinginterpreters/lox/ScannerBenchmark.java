@@ -0,0 +1,65 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Scans a program of about 1 MB into token windows the way the Parser pulls them.
+// The 'bytes' counter is the source scanned per second (the programs are ASCII), so MB/s is it over 10^6.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBenchmark {
+    @Param({"arithmetic", "fib", "loops", "methods", "objects"})
+    public String program;
+
+    private String source;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        source = Programs.repeat(program, 1 << 20);
+    }
+
+    // returns the number of tokens
+    @Benchmark
+    public int scan(Counters counters) {
+        Scanner scanner = new Scanner(source);
+        TokenBuffer tokens = new TokenBuffer(null);
+        int count = 0;
+        scanner.fill(tokens);
+        while (tokens.type(tokens.count() - 1) != TokenType.EOF) {
+            count += tokens.count() - 1;
+            tokens.retainLast();
+            scanner.fill(tokens);
+        }
+        counters.bytes += source.length();
+        return count + tokens.count();
+    }
+}
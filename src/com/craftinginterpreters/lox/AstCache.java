@@ -0,0 +1,553 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// On-disk cache of a resolved module: the AST together with everything the Resolver filled in
+// (depths, slots, frame sizes, captured scopes, tail calls) and the line of every statement, written next to the script as "<script>c" and keyed by the
+// source's SHA-256. A later run maps the file and rebuilds the tree directly, skipping Scanner, Parser and Resolver.
+final class AstCache {
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+    // bump whenever the AST classes or this encoding change, so older caches are ignored
+    private static final int VERSION = 6;
+    // --no-cache turns it off, every module then goes through the front end
+    static boolean enabled = true;
+
+    // node tags, 0 is a missing node
+    private static final byte SUPER_EXPR = 1, THIS_EXPR = 2, SET_EXPR = 3, GET_EXPR = 4, CALL_EXPR = 5,
+        ASSIGN_EXPR = 6, LOGICAL_EXPR = 7, BINARY_EXPR = 8, GROUPING_EXPR = 9, LITERAL_EXPR = 10,
+        UNARY_EXPR = 11, VARIABLE_EXPR = 12;
+    private static final byte CLASS_STMT = 21, RETURN_STMT = 22, FUNCTION_STMT = 23, BLOCK_STMT = 24,
+        EXPRESSION_STMT = 25, IMPORT_STMT = 26, IF_STMT = 27, PRINT_STMT = 28, VAR_STMT = 29, WHILE_STMT = 30,
+        FOR_STMT = 31;
+
+    // literal tags
+    private static final byte NIL = 0, TRUE = 1, FALSE = 2, NUMBER = 3, STRING = 4;
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private AstCache() {
+    }
+
+    static Path cacheFile(Path script) {
+        return script.resolveSibling(script.getFileName() + "c");
+    }
+
+    // the cached statements, or null when there is no cache for exactly this source;
+    // 'optimized' tells whether the Optimizer should have run on them, a cache written otherwise is a miss;
+    // the tokens are read as coming from the module named 'name', null for the main script
+    static List<Stmt> load(Path script, String name, byte[] hash, boolean optimized) {
+        Path file = cacheFile(script);
+        if (!Files.isRegularFile(file)) return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (bytes.getInt() != MAGIC || bytes.getInt() != VERSION) return null;
+            if (bytes.get() != (optimized ? 1 : 0)) return null;
+            byte[] source = new byte[hash.length];
+            bytes.get(source);
+            if (!Arrays.equals(source, hash)) return null;
+            return new Reader(bytes, name).statements();
+        } catch (IOException | RuntimeException error) {
+            // an unreadable or damaged cache is just a miss
+            return null;
+        }
+    }
+
+    static void store(Path script, byte[] hash, boolean optimized, List<Stmt> statements) {
+        Writer writer = new Writer();
+        writer.room(9 + hash.length).putInt(MAGIC).putInt(VERSION).put((byte)(optimized ? 1 : 0)).put(hash);
+        writer.statements(statements);
+
+        Path file = cacheFile(script);
+        Path temporary = null;
+        try {
+            // written under another name and moved into place, so a run never maps half a cache
+            temporary = file.resolveSibling(file.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer bytes = writer.out.flip();
+                while (bytes.hasRemaining()) channel.write(bytes);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException error) {
+            // the cache is only an optimization, a script in a read-only directory simply runs without one
+            try {
+                if (temporary != null) Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    //! -------------------Writing------------------------
+
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private ByteBuffer out = ByteBuffer.allocate(1 << 16);
+        // every distinct string is written once, later uses refer to it by index
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        ByteBuffer room(int size) {
+            if (out.remaining() < size) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + size));
+                grown.put(out.flip());
+                out = grown;
+            }
+            return out;
+        }
+
+        void statements(List<? extends Stmt> statements) {
+            room(4).putInt(statements.size());
+            for (Stmt statement : statements) {
+                stmt(statement);
+            }
+        }
+
+        private void expressions(List<Expr> expressions) {
+            room(4).putInt(expressions.size());
+            for (Expr expression : expressions) {
+                expr(expression);
+            }
+        }
+
+        private void stmt(Stmt stmt) {
+            if (stmt == null) {
+                room(1).put((byte)0);
+            } else {
+                stmt.accept(this);
+                integer(stmt.line);
+            }
+        }
+
+        private void expr(Expr expr) {
+            if (expr == null) {
+                room(1).put((byte)0);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void tag(byte tag) {
+            room(1).put(tag);
+        }
+
+        private void integer(int value) {
+            room(4).putInt(value);
+        }
+
+        private void string(String value) {
+            Integer index = strings.get(value);
+            if (index != null) {
+                integer(index);
+                return;
+            }
+
+            strings.put(value, strings.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            room(8 + bytes.length).putInt(-1).putInt(bytes.length).put(bytes);
+        }
+
+        private void token(Token token) {
+            room(5).put((byte)token.type.ordinal()).putInt(token.line);
+            string(token.lexeme);
+            literal(token.literal);
+        }
+
+        private void literal(Object value) {
+            if (value == null) {
+                tag(NIL);
+            } else if (value instanceof Boolean) {
+                tag((Boolean)value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                room(9).put(NUMBER).putDouble((Double)value);
+            } else {
+                tag(STRING);
+                string((String)value);
+            }
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            tag(SUPER_EXPR);
+            token(expr.keyword);
+            token(expr.method);
+            integer(expr.depth);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            tag(THIS_EXPR);
+            token(expr.keyword);
+            integer(expr.depth);
+            integer(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            tag(SET_EXPR);
+            expr(expr.object);
+            token(expr.name);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            tag(GET_EXPR);
+            expr(expr.object);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            tag(CALL_EXPR);
+            expr(expr.callee);
+            token(expr.paren);
+            expressions(expr.arguments);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            tag(ASSIGN_EXPR);
+            token(expr.name);
+            expr(expr.value);
+            integer(expr.depth);
+            integer(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            tag(LOGICAL_EXPR);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            tag(BINARY_EXPR);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            tag(GROUPING_EXPR);
+            expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            tag(LITERAL_EXPR);
+            literal(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            tag(UNARY_EXPR);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            tag(VARIABLE_EXPR);
+            token(expr.name);
+            integer(expr.depth);
+            integer(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            tag(CLASS_STMT);
+            token(stmt.name);
+            expr(stmt.superclass);
+            statements(stmt.methods);
+            integer(stmt.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            tag(RETURN_STMT);
+            token(stmt.keyword);
+            expr(stmt.value);
+            room(1).put((byte)(stmt.tailCall ? 1 : 0));
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            tag(FUNCTION_STMT);
+            token(stmt.name);
+            integer(stmt.params.size());
+            for (Token param : stmt.params) {
+                token(param);
+            }
+            statements(stmt.body);
+            integer(stmt.slot);
+            integer(stmt.frameSize);
+            room(1).put((byte)(stmt.captured ? 1 : 0));
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            tag(BLOCK_STMT);
+            statements(stmt.statements);
+            integer(stmt.frameSize);
+            room(1).put((byte)(stmt.captured ? 1 : 0));
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            tag(EXPRESSION_STMT);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt) {
+            tag(IMPORT_STMT);
+            token(stmt.keyword);
+            token(stmt.path);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            tag(IF_STMT);
+            expr(stmt.condition);
+            stmt(stmt.thenBranch);
+            stmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            tag(PRINT_STMT);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            tag(VAR_STMT);
+            token(stmt.name);
+            expr(stmt.initializer);
+            integer(stmt.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            tag(WHILE_STMT);
+            expr(stmt.condition);
+            stmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            tag(FOR_STMT);
+            stmt(stmt.initializer);
+            expr(stmt.condition);
+            expr(stmt.increment);
+            stmt(stmt.body);
+            integer(stmt.frameSize);
+            room(1).put((byte)(stmt.captured ? 1 : 0));
+            return null;
+        }
+    }
+
+    //! -------------------Reading------------------------
+
+    private static class Reader {
+        private final ByteBuffer in;
+        private final List<String> strings = new ArrayList<>();
+        private final String file;
+
+        Reader(ByteBuffer in, String file) {
+            this.in = in;
+            this.file = file;
+        }
+
+        List<Stmt> statements() {
+            int count = in.getInt();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(stmt());
+            }
+            return statements;
+        }
+
+        private List<Expr> expressions() {
+            int count = in.getInt();
+            List<Expr> expressions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                expressions.add(expr());
+            }
+            return expressions;
+        }
+
+        private String string() {
+            int index = in.getInt();
+            if (index >= 0) return strings.get(index);
+
+            byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+
+        private Token token() {
+            TokenType type = TOKEN_TYPES[in.get()];
+            int line = in.getInt();
+            String lexeme = string();
+            return new Token(type, lexeme, literal(), line, file);
+        }
+
+        private Object literal() {
+            switch (in.get()) {
+                case NIL: return null;
+                case TRUE: return true;
+                case FALSE: return false;
+                case NUMBER: return in.getDouble();
+                case STRING: return string();
+                default: throw new IllegalStateException("Bad literal in AST cache.");
+            }
+        }
+
+        private Expr expr() {
+            byte tag = in.get();
+            switch (tag) {
+                case 0: return null;
+                case SUPER_EXPR: {
+                    Expr.Super expr = new Expr.Super(token(), token());
+                    expr.depth = in.getInt();
+                    return expr;
+                }
+                case THIS_EXPR: {
+                    Expr.This expr = new Expr.This(token());
+                    expr.depth = in.getInt();
+                    expr.slot = in.getInt();
+                    return expr;
+                }
+                case SET_EXPR: return new Expr.Set(expr(), token(), expr());
+                case GET_EXPR: return new Expr.Get(expr(), token());
+                case CALL_EXPR: return new Expr.Call(expr(), token(), expressions());
+                case ASSIGN_EXPR: {
+                    Expr.Assign expr = new Expr.Assign(token(), expr());
+                    expr.depth = in.getInt();
+                    expr.slot = in.getInt();
+                    return expr;
+                }
+                case LOGICAL_EXPR: return new Expr.Logical(expr(), token(), expr());
+                case BINARY_EXPR: return new Expr.Binary(expr(), token(), expr());
+                case GROUPING_EXPR: return new Expr.Grouping(expr());
+                case LITERAL_EXPR: return new Expr.Literal(literal());
+                case UNARY_EXPR: return new Expr.Unary(token(), expr());
+                case VARIABLE_EXPR: return variable();
+                default: throw new IllegalStateException("Bad expression in AST cache.");
+            }
+        }
+
+        private Expr.Variable variable() {
+            Expr.Variable expr = new Expr.Variable(token());
+            expr.depth = in.getInt();
+            expr.slot = in.getInt();
+            return expr;
+        }
+
+        private Stmt stmt() {
+            byte tag = in.get();
+            if (tag == 0) return null;
+            Stmt stmt = stmt(tag);
+            // every statement is followed by the line it starts on
+            stmt.line = in.getInt();
+            return stmt;
+        }
+
+        private Stmt stmt(byte tag) {
+            switch (tag) {
+                case CLASS_STMT: {
+                    Token name = token();
+                    Expr.Variable superclass = (Expr.Variable)expr();
+                    int count = in.getInt();
+                    List<Stmt.Function> methods = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        methods.add((Stmt.Function)stmt());
+                    }
+                    Stmt.Class stmt = new Stmt.Class(name, superclass, methods);
+                    stmt.slot = in.getInt();
+                    return stmt;
+                }
+                case RETURN_STMT: {
+                    Stmt.Return stmt = new Stmt.Return(token(), expr());
+                    stmt.tailCall = in.get() != 0;
+                    return stmt;
+                }
+                case FUNCTION_STMT: {
+                    Token name = token();
+                    int count = in.getInt();
+                    List<Token> params = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        params.add(token());
+                    }
+                    Stmt.Function stmt = new Stmt.Function(name, params, statements());
+                    stmt.slot = in.getInt();
+                    stmt.frameSize = in.getInt();
+                    stmt.captured = in.get() != 0;
+                    return stmt;
+                }
+                case BLOCK_STMT: {
+                    Stmt.Block stmt = new Stmt.Block(statements());
+                    stmt.frameSize = in.getInt();
+                    stmt.captured = in.get() != 0;
+                    return stmt;
+                }
+                case EXPRESSION_STMT: return new Stmt.Expression(expr());
+                case IMPORT_STMT: return new Stmt.Import(token(), token());
+                case IF_STMT: return new Stmt.If(expr(), stmt(), stmt());
+                case PRINT_STMT: return new Stmt.Print(expr());
+                case VAR_STMT: {
+                    Stmt.Var stmt = new Stmt.Var(token(), expr());
+                    stmt.slot = in.getInt();
+                    return stmt;
+                }
+                case WHILE_STMT: return new Stmt.While(expr(), stmt());
+                case FOR_STMT: {
+                    Stmt.For stmt = new Stmt.For(stmt(), expr(), expr(), stmt());
+                    stmt.frameSize = in.getInt();
+                    stmt.captured = in.get() != 0;
+                    return stmt;
+                }
+                default: throw new IllegalStateException("Bad statement in AST cache.");
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// A pass of the Optimizer: rewrites the resolved program bottom-up.
+// Every visit returns the node to use in place of the one visited: the same node when nothing below it changed,
+// otherwise a copy that carries over the Resolver's annotations. A statement visit may return null to remove it.
+// A pass overrides the visits of the nodes it simplifies and calls the inherited visit to rewrite the children first.
+abstract class AstRewriter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // what the current run changed, reported by --optimizer-stats
+    protected Optimizer.Stats stats;
+
+    List<Stmt> rewrite(List<Stmt> program, Optimizer.Stats stats) {
+        this.stats = stats;
+        return rewrite(program);
+    }
+
+    // the statements to use in place of 'statements', the same list when none of them changed
+    protected List<Stmt> rewrite(List<Stmt> statements) {
+        List<Stmt> rewritten = null;
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt statement = statements.get(i);
+            Stmt result = rewrite(statement);
+            if (result != statement && rewritten == null) {
+                rewritten = new ArrayList<>(statements.subList(0, i));
+            }
+            if (rewritten != null && result != null) rewritten.add(result);
+        }
+        return rewritten != null ? rewritten : statements;
+    }
+
+    protected Stmt rewrite(Stmt stmt) {
+        Stmt result = stmt.accept(this);
+        // a new statement takes the line and node id of the one it replaces, one moved up from below keeps its own
+        if (result != null && result.line == 0) result.line = stmt.line;
+        if (result != null && result.id < 0) result.id = stmt.id;
+        if (LineProfiler.ENABLED && result != stmt && (result == null || result.id != stmt.id)) {
+            LineProfiler.replaced(stmt.id);
+        }
+        return result;
+    }
+
+    protected Expr rewrite(Expr expr) {
+        Expr result = expr.accept(this);
+        if (result.id < 0) result.id = expr.id;
+        if (LineProfiler.ENABLED && result.id != expr.id) LineProfiler.replaced(expr.id);
+        return result;
+    }
+
+    // a branch or loop body can't be removed, it becomes an empty block instead
+    private Stmt rewriteBody(Stmt stmt) {
+        Stmt result = rewrite(stmt);
+        return result != null ? result : new Stmt.Block(Collections.emptyList());
+    }
+
+    // called around everything that runs in an environment of its own at runtime: a block or function that
+    // declares something, the methods of a subclass (whose scope holds 'super'), a 'for' declaring its loop variable;
+    // so a pass can follow (depth, slot) references
+    protected void beginScope() {
+    }
+
+    protected void endScope() {
+    }
+
+    //! -------------------Stmts------------------------
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        boolean scoped = stmt.frameSize > 0;
+        if (scoped) beginScope();
+        List<Stmt> statements = rewrite(stmt.statements);
+        if (scoped) endScope();
+        if (statements == stmt.statements) return stmt;
+
+        Stmt.Block block = new Stmt.Block(statements);
+        block.frameSize = stmt.frameSize;
+        block.captured = stmt.captured;
+        return block;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        // the superclass stays a variable, it has to name a class at runtime
+        if (stmt.superclass != null) beginScope();
+        List<Stmt.Function> methods = stmt.methods;
+        for (int i = 0; i < stmt.methods.size(); i++) {
+            Stmt.Function method = stmt.methods.get(i);
+            Stmt.Function result = (Stmt.Function)rewrite(method);
+            if (result != method && methods == stmt.methods) methods = new ArrayList<>(stmt.methods);
+            if (methods != stmt.methods) methods.set(i, result);
+        }
+        if (stmt.superclass != null) endScope();
+        if (methods == stmt.methods) return stmt;
+
+        Stmt.Class rewritten = new Stmt.Class(stmt.name, stmt.superclass, methods);
+        rewritten.slot = stmt.slot;
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = rewrite(stmt.expression);
+        return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        boolean scoped = stmt.frameSize > 0;
+        if (scoped) beginScope();
+        List<Stmt> body = rewrite(stmt.body);
+        if (scoped) endScope();
+        if (body == stmt.body) return stmt;
+
+        // the call counter and the compiled code start over, they belong to the code that runs
+        Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, body);
+        function.slot = stmt.slot;
+        function.frameSize = stmt.frameSize;
+        function.captured = stmt.captured;
+        return function;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt thenBranch = rewriteBody(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch != null ? rewrite(stmt.elseBranch) : null;
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) return stmt;
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitImportStmt(Stmt.Import stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = rewrite(stmt.expression);
+        return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+        Expr value = rewrite(stmt.value);
+        if (value == stmt.value) return stmt;
+
+        Stmt.Return rewritten = new Stmt.Return(stmt.keyword, value);
+        rewritten.tailCall = stmt.tailCall;
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return stmt;
+        Expr initializer = rewrite(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+
+        Stmt.Var rewritten = new Stmt.Var(stmt.name, initializer);
+        rewritten.slot = stmt.slot;
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt body = rewriteBody(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new Stmt.While(condition, body);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        boolean scoped = stmt.frameSize > 0;
+        if (scoped) beginScope();
+        Stmt initializer = stmt.initializer != null ? rewrite(stmt.initializer) : null;
+        Expr condition = stmt.condition != null ? rewrite(stmt.condition) : null;
+        Stmt body = rewriteBody(stmt.body);
+        Expr increment = stmt.increment != null ? rewrite(stmt.increment) : null;
+        if (scoped) endScope();
+        if (initializer == stmt.initializer && condition == stmt.condition && increment == stmt.increment
+                && body == stmt.body) return stmt;
+
+        Stmt.For rewritten = new Stmt.For(initializer, condition, increment, body);
+        rewritten.frameSize = stmt.frameSize;
+        rewritten.captured = stmt.captured;
+        return rewritten;
+    }
+
+    //! -------------------Exprs------------------------
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = rewrite(expr.value);
+        if (value == expr.value) return expr;
+
+        Expr.Assign rewritten = new Expr.Assign(expr.name, value);
+        rewritten.depth = expr.depth;
+        rewritten.slot = expr.slot;
+        return rewritten;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = rewrite(expr.callee);
+        List<Expr> arguments = expr.arguments;
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            Expr argument = expr.arguments.get(i);
+            Expr result = rewrite(argument);
+            if (result != argument && arguments == expr.arguments) arguments = new ArrayList<>(expr.arguments);
+            if (arguments != expr.arguments) arguments.set(i, result);
+        }
+        if (callee == expr.callee && arguments == expr.arguments) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = rewrite(expr.object);
+        return object == expr.object ? expr : new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = rewrite(expr.expression);
+        return expression == expr.expression ? expr : new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = rewrite(expr.object);
+        Expr value = rewrite(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = rewrite(expr.right);
+        return right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    // true for a literal operand, the only kind the passes evaluate ahead of time
+    static boolean isLiteral(Expr expr) {
+        return expr instanceof Expr.Literal;
+    }
+
+    static Object valueOf(Expr expr) {
+        return ((Expr.Literal)expr).value;
+    }
+}
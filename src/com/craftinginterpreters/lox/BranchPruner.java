@@ -0,0 +1,70 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Removes code that can never run: the branch an 'if' with a literal condition doesn't take,
+// a loop whose literal condition is false, the statements after a 'return' and empty blocks.
+class BranchPruner extends AstRewriter {
+
+    @Override
+    protected List<Stmt> rewrite(List<Stmt> statements) {
+        statements = super.rewrite(statements);
+        List<Stmt> pruned = null;
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt statement = statements.get(i);
+            boolean empty = statement instanceof Stmt.Block && ((Stmt.Block)statement).statements.isEmpty();
+            if (empty && pruned == null) pruned = new ArrayList<>(statements.subList(0, i));
+            if (empty) {
+                stats.count("empty blocks removed");
+            } else if (pruned != null) {
+                pruned.add(statement);
+            }
+
+            // nothing after a return runs
+            if (statement instanceof Stmt.Return && i + 1 < statements.size()) {
+                stats.count("unreachable statements removed");
+                if (pruned == null) pruned = new ArrayList<>(statements.subList(0, i + 1));
+                break;
+            }
+        }
+        return pruned != null ? pruned : statements;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Stmt rewritten = super.visitIfStmt(stmt);
+        Stmt.If ifStmt = (Stmt.If)rewritten;
+        if (!isLiteral(ifStmt.condition)) return rewritten;
+
+        stats.count("branches pruned");
+        return Interpreter.isTruthy(valueOf(ifStmt.condition)) ? ifStmt.thenBranch : ifStmt.elseBranch;
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        Stmt rewritten = super.visitForStmt(stmt);
+        Stmt.For forStmt = (Stmt.For)rewritten;
+        if (forStmt.condition == null || !isLiteral(forStmt.condition)
+                || Interpreter.isTruthy(valueOf(forStmt.condition))) return rewritten;
+
+        // only the initializer runs, a variable it declares keeps its scope
+        stats.count("loops pruned");
+        if (forStmt.frameSize == 0) return forStmt.initializer;
+        Stmt.Block block = new Stmt.Block(Collections.singletonList(forStmt.initializer));
+        block.frameSize = forStmt.frameSize;
+        block.captured = forStmt.captured;
+        return block;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Stmt rewritten = super.visitWhileStmt(stmt);
+        Stmt.While whileStmt = (Stmt.While)rewritten;
+        if (!isLiteral(whileStmt.condition) || Interpreter.isTruthy(valueOf(whileStmt.condition))) return rewritten;
+
+        stats.count("loops pruned");
+        return null;
+    }
+}
@@ -0,0 +1,75 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+// The Lox calls in progress on an Interpreter's thread and the line each of them is at, published for
+// the sampling profiler (--sample). The thread running Lox writes it with plain stores, only the depth is
+// released; the Sampler reads it from its own thread without a lock. A sample taken while a call starts or
+// returns can be off by a frame, which a statistical profile doesn't mind. Like the FrameStack, every
+// Interpreter has its own.
+class CallStack {
+    private static final VarHandle DEPTH;
+    static {
+        try {
+            DEPTH = MethodHandles.lookup().findVarHandle(CallStack.class, "depth", int.class);
+        } catch (ReflectiveOperationException error) {
+            throw new ExceptionInInitializerError(error);
+        }
+    }
+
+    // entry 0 is the top level, it has no function
+    private Stmt.Function[] functions = new Stmt.Function[64];
+    private int[] lines = new int[64];
+    // the index of the innermost call, -1 while no program runs
+    private int depth = -1;
+
+    void start() {
+        lines[0] = 0;
+        DEPTH.setRelease(this, 0);
+    }
+
+    // a runtime error leaves calls on the stack, they end here too
+    void stop() {
+        DEPTH.setRelease(this, -1);
+    }
+
+    void push(Stmt.Function function) {
+        int next = depth + 1;
+        if (next == functions.length) {
+            // the Sampler may still read the old arrays, they stay as they were
+            functions = Arrays.copyOf(functions, next * 2);
+            lines = Arrays.copyOf(lines, next * 2);
+        }
+        functions[next] = function;
+        lines[next] = function.name.line;
+        DEPTH.setRelease(this, next);
+    }
+
+    void pop() {
+        DEPTH.setRelease(this, depth - 1);
+    }
+
+    // the statement the innermost call is executing starts on 'line'
+    void line(int line) {
+        lines[depth] = line;
+    }
+
+    // the calls as collapsed-stack frames, outermost first: "<script>:8;fib:4;fib:5", null while nothing runs
+    String sample() {
+        int top = (int)DEPTH.getAcquire(this);
+        if (top < 0) return null;
+        Stmt.Function[] functions = this.functions;
+        int[] lines = this.lines;
+        top = Math.min(top, Math.min(functions.length, lines.length) - 1);
+
+        StringBuilder stack = new StringBuilder();
+        for (int i = 0; i <= top; i++) {
+            if (i > 0) stack.append(';');
+            Stmt.Function function = functions[i];
+            stack.append(i == 0 || function == null ? "<script>" : function.name.lexeme).append(':').append(lines[i]);
+        }
+        return stack.toString();
+    }
+}
@@ -0,0 +1,83 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A compiled function body for the VM: the bytecode, its constant pool and the source lines and modules.
+class Chunk {
+    byte[] code = new byte[16];
+    int count = 0;
+    Object[] constants;
+
+    private final List<Object> constantList = new ArrayList<>();
+    // numbers and strings are deduplicated, so every use of "x" or 1 shares one pool entry
+    private final Map<Object, Integer> constantIndexes = new HashMap<>();
+
+    // lines are run-length encoded: lineNumbers[i] and lineFiles[i] apply from code offset lineStarts[i] on;
+    // the file is the imported module, null for the main script, the script's chunk has the code of them all
+    private int[] lineStarts = new int[4];
+    private int[] lineNumbers = new int[4];
+    private String[] lineFiles = new String[4];
+    private int lineCount = 0;
+
+    void write(int b, int line, String file) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+        }
+
+        if (lineCount == 0 || lineNumbers[lineCount - 1] != line || lineFiles[lineCount - 1] != file) {
+            if (lineCount == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+                lineNumbers = Arrays.copyOf(lineNumbers, lineCount * 2);
+                lineFiles = Arrays.copyOf(lineFiles, lineCount * 2);
+            }
+            lineStarts[lineCount] = count;
+            lineNumbers[lineCount] = line;
+            lineFiles[lineCount] = file;
+            lineCount++;
+        }
+
+        code[count++] = (byte)b;
+    }
+
+    int addConstant(Object value) {
+        boolean shareable = value instanceof Double || value instanceof String;
+        if (shareable && constantIndexes.containsKey(value)) {
+            return constantIndexes.get(value);
+        }
+
+        constantList.add(value);
+        int index = constantList.size() - 1;
+        if (shareable) constantIndexes.put(value, index);
+        return index;
+    }
+
+    int getLine(int offset) {
+        int line = 0;
+        for (int i = 0; i < lineCount && lineStarts[i] <= offset; i++) {
+            line = lineNumbers[i];
+        }
+        return line;
+    }
+
+    String getFile(int offset) {
+        String file = null;
+        for (int i = 0; i < lineCount && lineStarts[i] <= offset; i++) {
+            file = lineFiles[i];
+        }
+        return file;
+    }
+
+    // trim the buffers once the compiler is done with the chunk
+    void finish() {
+        code = Arrays.copyOf(code, count);
+        constants = constantList.toArray();
+        constantIndexes.clear();
+        lineStarts = Arrays.copyOf(lineStarts, lineCount);
+        lineNumbers = Arrays.copyOf(lineNumbers, lineCount);
+        lineFiles = Arrays.copyOf(lineFiles, lineCount);
+    }
+}
@@ -0,0 +1,84 @@
+package com.craftinginterpreters.lox;
+
+// Evaluates operators whose operands are all literals, the way the Interpreter would at runtime:
+// '1 + 2 * 3' becomes 7, '"a" + "b"' becomes "ab", '!nil' becomes true.
+// An operation that would fail at runtime, like '-"a"' or '1 + "a"', is left alone so it still reports its error.
+class ConstantFolder extends AstRewriter {
+    // the result of an operation that can't be evaluated ahead of time
+    private static final Object NOT_CONSTANT = new Object();
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr rewritten = super.visitBinaryExpr(expr);
+        Expr.Binary binary = (Expr.Binary)rewritten;
+        if (!isLiteral(binary.left) || !isLiteral(binary.right)) return rewritten;
+
+        Object value = fold(binary.operator.type, valueOf(binary.left), valueOf(binary.right));
+        if (value == NOT_CONSTANT) return rewritten;
+        stats.count("operations folded");
+        return new Expr.Literal(value);
+    }
+
+    private static Object fold(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case BANG_EQUAL: return !Interpreter.isEqual(left, right);
+            case EQUAL_EQUAL: return Interpreter.isEqual(left, right);
+            case PLUS:
+                if (left instanceof String && right instanceof String) return (String)left + (String)right;
+                break;
+        }
+        if (!(left instanceof Double) || !(right instanceof Double)) return NOT_CONSTANT;
+
+        double a = (double)left;
+        double b = (double)right;
+        switch (operator) {
+            case PLUS: return a + b;
+            case MINUS: return a - b;
+            case STAR: return a * b;
+            case SLASH: return a / b;
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case LESS: return a < b;
+            case LESS_EQUAL: return a <= b;
+        }
+        return NOT_CONSTANT;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr rewritten = super.visitUnaryExpr(expr);
+        Expr.Unary unary = (Expr.Unary)rewritten;
+        if (!isLiteral(unary.right)) return rewritten;
+
+        Object right = valueOf(unary.right);
+        if (unary.operator.type == TokenType.BANG) {
+            stats.count("operations folded");
+            return new Expr.Literal(!Interpreter.isTruthy(right));
+        }
+        if (unary.operator.type == TokenType.MINUS && right instanceof Double) {
+            stats.count("operations folded");
+            return new Expr.Literal(-(double)right);
+        }
+        return rewritten;
+    }
+
+    // 'a or b' and 'a and b' with a literal 'a' are either 'a' itself or just 'b'
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr rewritten = super.visitLogicalExpr(expr);
+        Expr.Logical logical = (Expr.Logical)rewritten;
+        if (!isLiteral(logical.left)) return rewritten;
+
+        stats.count("logical operators simplified");
+        boolean truthy = Interpreter.isTruthy(valueOf(logical.left));
+        boolean shortCircuits = logical.operator.type == TokenType.OR ? truthy : !truthy;
+        return shortCircuits ? logical.left : logical.right;
+    }
+
+    // parentheses only matter to the Parser
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        stats.count("groupings removed");
+        return rewrite(expr.expression);
+    }
+}
@@ -1,35 +1,43 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class Environment {
 
-    // envionment chain
-    final Environment enclosing;
+    // envionment chain, relinked when the FrameStack hands the environment out again
+    Environment enclosing;
 
-    private final Map<String, Object> values = new HashMap<>();    
+    // local frame: one slot per declaration in the scope, the Resolver assigns the indexes
+    private final Object[] slots;
+
+    // only the global environment is keyed by name, because globals can be referenced before they are declared:
+    // it is indexed by Symbol id, with UNDEFINED for names that have no global
+    private Object[] values;
+    private static final Object UNDEFINED = new Object();
 
     Environment() {
         this.enclosing = null;
+        this.slots = null;
+        this.values = new Object[0];
     }
 
-    Environment(Environment enclosing){
+    Environment(Environment enclosing, int size){
         this.enclosing = enclosing;
+        this.slots = new Object[size];
+        this.values = null;
     }
 
-    
+
     // Resolver
 
     // getAt using Resolver has no need for environment chain, instead using index directly
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
     }
 
     // assignAt using Resolver has no need for environment chain, instead using index directly
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
-
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 
     // using Resolver to find the corresponding ancestor environment
@@ -42,43 +50,59 @@ class Environment {
         return environment;
     }
 
-    
+    // declarations in a local scope go straight into the slot the Resolver assigned
+    void define(int slot, Object value) {
+        slots[slot] = value;
+    }
 
-    // Environment Chain
+    int size() {
+        return slots.length;
+    }
 
-    void define(String name, Object value){
-        values.put(name, value);
+    // lets the values in the first 'size' slots be collected
+    void clear(int size) {
+        for (int i = 0; i < size; i++) {
+            slots[i] = null;
+        }
     }
-    
-    // using the environment chain
-    void assign(Token name, Object value){
-        // inner first
-        if(values.containsKey(name.lexeme)){
-            values.put(name.lexeme, value);
-            return;
+
+
+    // Globals
+
+    void define(Symbol name, Object value){
+        if (name.id >= values.length) {
+            // room for every symbol interned so far
+            int length = values.length;
+            values = Arrays.copyOf(values, Math.max(Symbol.count(), name.id + 1));
+            Arrays.fill(values, length, values.length, UNDEFINED);
         }
+        values[name.id] = value;
+    }
 
-        // inner -> outter
-        if(enclosing != null){
-            enclosing.assign(name, value);
+    private boolean isDefined(Symbol name){
+        return name.id < values.length && values[name.id] != UNDEFINED;
+    }
+
+    void assign(Token name, Object value){
+        if(isDefined(name.symbol)){
+            values[name.symbol.id] = value;
             return;
         }
 
-        throw new RuntimeError(name, 
+        throw new RuntimeError(name,
             "Undefined variable '" + name.lexeme + "'.");
     }
 
-    // using the environment chain
+    // the value of a global, or null when it isn't defined
+    Object lookup(Symbol name){
+        return isDefined(name) ? values[name.id] : null;
+    }
+
     Object get(Token name){
-        // inner first -> shadow outter
-        if(values.containsKey(name.lexeme)){
-            return values.get(name.lexeme);
+        if(isDefined(name.symbol)){
+            return values[name.symbol.id];
         }
 
-       // inner -> outter 
-        if(enclosing != null) return enclosing.get(name);
-    
-
         throw new RuntimeError(name,
             "Undefined variable '"+ name.lexeme + "'.");
     }
@@ -4,6 +4,8 @@ import java.util.List;
 
 abstract class Expr{
 
+    int id = -1;
+
     abstract <R> R accept(Visitor<R> visitor);
 
     interface Visitor<R>{
@@ -30,6 +32,8 @@ abstract class Expr{
         final Token keyword;
         final Token method;
 
+        int depth = -1;
+
         @Override
         <R> R accept(Visitor<R> visitor){
             return visitor.visitSuperExpr(this);
@@ -43,6 +47,9 @@ abstract class Expr{
 
         final Token keyword;
 
+        int depth = -1;
+        int slot = -1;
+
         @Override
         <R> R accept(Visitor<R> visitor){
             return visitor.visitThisExpr(this);
@@ -60,6 +67,8 @@ abstract class Expr{
         final Token name;
         final Expr value;
 
+        final PropertyCache cache = new PropertyCache();
+
         @Override
         <R> R accept(Visitor<R> visitor){
             return visitor.visitSetExpr(this);
@@ -75,6 +84,8 @@ abstract class Expr{
         final Expr object;
         final Token name;
 
+        final PropertyCache cache = new PropertyCache();
+
         @Override
         <R> R accept(Visitor<R> visitor){
             return visitor.visitGetExpr(this);
@@ -107,6 +118,9 @@ abstract class Expr{
         final Token name;
         final Expr value;
 
+        int depth = -1;
+        int slot = -1;
+
         @Override
         <R> R accept(Visitor<R> visitor){
             return visitor.visitAssignExpr(this);
@@ -195,6 +209,9 @@ abstract class Expr{
 
         final Token name;
 
+        int depth = -1;
+        int slot = -1;
+
         @Override
         <R> R accept(Visitor<R> visitor){
             return visitor.visitVariableExpr(this);
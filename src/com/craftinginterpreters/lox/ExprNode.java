@@ -0,0 +1,921 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Executable expression nodes built once by the NodeCompiler.
+// Every node already knows its operator and resolved slot coordinates,
+// so executing it is a plain virtual call with no visitor dispatch and no lookups.
+abstract class ExprNode {
+
+    // specialization states of the operator nodes
+    static final int UNINITIALIZED = 0;
+    static final int NUMBER = 1;
+    static final int STRING = 2;
+    static final int BOOLEAN = 3;
+    static final int GENERIC = 4;
+
+    abstract Object execute(Environment environment);
+
+    // Primitive execution paths, so a parent that only wants a double or a boolean never boxes one.
+    // The defaults go through execute(); a result of the wrong type comes back inside UnexpectedResult
+    // and the caller falls back to its generic path with it.
+    double executeNumber(Environment environment) throws UnexpectedResult {
+        return expectNumber(execute(environment));
+    }
+
+    boolean executeBoolean(Environment environment) throws UnexpectedResult {
+        return expectBoolean(execute(environment));
+    }
+
+    // if/while only need truthiness, so a boolean-specialized condition never boxes its result
+    boolean executeCondition(Environment environment) {
+        try {
+            return executeBoolean(environment);
+        } catch (UnexpectedResult result) {
+            return Interpreter.isTruthy(result.value);
+        }
+    }
+
+    static double expectNumber(Object value) throws UnexpectedResult {
+        if (value instanceof Double) return (double)value;
+        throw new UnexpectedResult(value);
+    }
+
+    static boolean expectBoolean(Object value) throws UnexpectedResult {
+        if (value instanceof Boolean) return (boolean)value;
+        throw new UnexpectedResult(value);
+    }
+
+    // carries a value that didn't fit the primitive type the caller asked for
+    static class UnexpectedResult extends Exception {
+        final Object value;
+
+        UnexpectedResult(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    //! -------------------Variables------------------------
+
+    static class Literal extends ExprNode {
+        private final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return value;
+        }
+    }
+
+    // a local resolved to (depth, slot), also used for 'this'
+    static class LocalVariable extends ExprNode {
+        private final int depth;
+        private final int slot;
+
+        LocalVariable(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return environment.getAt(depth, slot);
+        }
+    }
+
+    static class GlobalVariable extends ExprNode {
+        private final Environment globals;
+        private final Token name;
+
+        GlobalVariable(Environment globals, Token name) {
+            this.globals = globals;
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return globals.get(name);
+        }
+    }
+
+    static class LocalAssign extends ExprNode {
+        private final int depth;
+        private final int slot;
+        private final ExprNode value;
+
+        LocalAssign(int depth, int slot, ExprNode value) {
+            this.depth = depth;
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object result = value.execute(environment);
+            environment.assignAt(depth, slot, result);
+            return result;
+        }
+    }
+
+    static class GlobalAssign extends ExprNode {
+        private final Environment globals;
+        private final Token name;
+        private final ExprNode value;
+
+        GlobalAssign(Environment globals, Token name, ExprNode value) {
+            this.globals = globals;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object result = value.execute(environment);
+            globals.assign(name, result);
+            return result;
+        }
+    }
+
+    //! -------------------Operators------------------------
+
+    // Operator nodes specialize themselves on the operand types they observe.
+    // A node starts UNINITIALIZED, settles on the types of its first execution (two numbers, two strings, a boolean),
+    // and drops to GENERIC for good the first time those types change, so it never flips back and forth.
+    // A NUMBER node pulls its operands through executeNumber() and computes on primitive doubles;
+    // only the final result is boxed, and only if the parent asks for an Object.
+
+    // shared shape of the binary operators: both operands are evaluated left-to-right before the operator applies
+    abstract static class Binary extends ExprNode {
+        final Token operator;
+        final ExprNode left;
+        final ExprNode right;
+        int state = UNINITIALIZED;
+
+        Binary(Token operator, ExprNode left, ExprNode right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        // the generic path, exactly what the Interpreter does; the first execution also picks the specialization
+        @Override
+        Object execute(Environment environment) {
+            Object left_value = left.execute(environment);
+            Object right_value = right.execute(environment);
+            if (state == UNINITIALIZED) state = specialize(left_value, right_value);
+            return apply(left_value, right_value);
+        }
+
+        int specialize(Object left_value, Object right_value) {
+            return left_value instanceof Double && right_value instanceof Double ? NUMBER : GENERIC;
+        }
+
+        abstract Object apply(Object left_value, Object right_value);
+    }
+
+    // operators that produce a number from two numbers: '+', '-', '*', '/'
+    abstract static class Arithmetic extends Binary {
+        Arithmetic(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        abstract double applyNumber(double left_value, double right_value);
+
+        @Override
+        Object execute(Environment environment) {
+            if (state != NUMBER) return super.execute(environment);
+            try {
+                return executeNumber(environment);
+            } catch (UnexpectedResult result) {
+                return result.value;
+            }
+        }
+
+        @Override
+        double executeNumber(Environment environment) throws UnexpectedResult {
+            if (state != NUMBER) return super.executeNumber(environment);
+
+            double left_value;
+            try {
+                left_value = left.executeNumber(environment);
+            } catch (UnexpectedResult result) {
+                return despecialize(result.value, right.execute(environment));
+            }
+            double right_value;
+            try {
+                right_value = right.executeNumber(environment);
+            } catch (UnexpectedResult result) {
+                return despecialize(left_value, result.value);
+            }
+            return applyNumber(left_value, right_value);
+        }
+
+        private double despecialize(Object left_value, Object right_value) throws UnexpectedResult {
+            state = GENERIC;
+            return expectNumber(apply(left_value, right_value));
+        }
+    }
+
+    // operators that produce a boolean from two numbers: the comparisons, and '=='/'!=' when both sides are numbers
+    abstract static class Comparison extends Binary {
+        Comparison(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        abstract boolean applyNumber(double left_value, double right_value);
+
+        @Override
+        Object execute(Environment environment) {
+            if (state != NUMBER) return super.execute(environment);
+            try {
+                return executeBoolean(environment);
+            } catch (UnexpectedResult result) {
+                return result.value;
+            }
+        }
+
+        @Override
+        boolean executeBoolean(Environment environment) throws UnexpectedResult {
+            if (state != NUMBER) return super.executeBoolean(environment);
+
+            double left_value;
+            try {
+                left_value = left.executeNumber(environment);
+            } catch (UnexpectedResult result) {
+                return despecialize(result.value, right.execute(environment));
+            }
+            double right_value;
+            try {
+                right_value = right.executeNumber(environment);
+            } catch (UnexpectedResult result) {
+                return despecialize(left_value, result.value);
+            }
+            return applyNumber(left_value, right_value);
+        }
+
+        private boolean despecialize(Object left_value, Object right_value) throws UnexpectedResult {
+            state = GENERIC;
+            return expectBoolean(apply(left_value, right_value));
+        }
+    }
+
+    static class Add extends Arithmetic {
+        Add(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        int specialize(Object left_value, Object right_value) {
+            if (left_value instanceof String && right_value instanceof String) return STRING;
+            return super.specialize(left_value, right_value);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            if (state != STRING) return super.execute(environment);
+
+            Object left_value = left.execute(environment);
+            Object right_value = right.execute(environment);
+            if (left_value instanceof String && right_value instanceof String) {
+                return (String)left_value + (String)right_value;
+            }
+            state = GENERIC;
+            return apply(left_value, right_value);
+        }
+
+        @Override
+        double applyNumber(double left_value, double right_value) {
+            return left_value + right_value;
+        }
+
+        @Override
+        Object apply(Object left_value, Object right_value) {
+            if (left_value instanceof Double && right_value instanceof Double) {
+                return (double)left_value + (double)right_value;
+            }
+
+            if (left_value instanceof String && right_value instanceof String) {
+                return (String)left_value + (String)right_value;
+            }
+
+            throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+        }
+    }
+
+    static class Subtract extends Arithmetic {
+        Subtract(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        double applyNumber(double left_value, double right_value) {
+            return left_value - right_value;
+        }
+
+        @Override
+        Object apply(Object left_value, Object right_value) {
+            Interpreter.checkNumberOperands(operator, left_value, right_value);
+            return (double)left_value - (double)right_value;
+        }
+    }
+
+    static class Multiply extends Arithmetic {
+        Multiply(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        double applyNumber(double left_value, double right_value) {
+            return left_value * right_value;
+        }
+
+        @Override
+        Object apply(Object left_value, Object right_value) {
+            Interpreter.checkNumberOperands(operator, left_value, right_value);
+            return (double)left_value * (double)right_value;
+        }
+    }
+
+    static class Divide extends Arithmetic {
+        Divide(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        double applyNumber(double left_value, double right_value) {
+            return left_value / right_value;
+        }
+
+        @Override
+        Object apply(Object left_value, Object right_value) {
+            Interpreter.checkNumberOperands(operator, left_value, right_value);
+            return (double)left_value / (double)right_value;
+        }
+    }
+
+    static class Greater extends Comparison {
+        Greater(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean applyNumber(double left_value, double right_value) {
+            return left_value > right_value;
+        }
+
+        @Override
+        Object apply(Object left_value, Object right_value) {
+            Interpreter.checkNumberOperands(operator, left_value, right_value);
+            return (double)left_value > (double)right_value;
+        }
+    }
+
+    static class GreaterEqual extends Comparison {
+        GreaterEqual(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean applyNumber(double left_value, double right_value) {
+            return left_value >= right_value;
+        }
+
+        @Override
+        Object apply(Object left_value, Object right_value) {
+            Interpreter.checkNumberOperands(operator, left_value, right_value);
+            return (double)left_value >= (double)right_value;
+        }
+    }
+
+    static class Less extends Comparison {
+        Less(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean applyNumber(double left_value, double right_value) {
+            return left_value < right_value;
+        }
+
+        @Override
+        Object apply(Object left_value, Object right_value) {
+            Interpreter.checkNumberOperands(operator, left_value, right_value);
+            return (double)left_value < (double)right_value;
+        }
+    }
+
+    static class LessEqual extends Comparison {
+        LessEqual(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean applyNumber(double left_value, double right_value) {
+            return left_value <= right_value;
+        }
+
+        @Override
+        Object apply(Object left_value, Object right_value) {
+            Interpreter.checkNumberOperands(operator, left_value, right_value);
+            return (double)left_value <= (double)right_value;
+        }
+    }
+
+    // isEqual() compares numbers with Double.equals(), which Double.compare() matches (NaN == NaN, 0 != -0)
+    static class Equal extends Comparison {
+        Equal(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean applyNumber(double left_value, double right_value) {
+            return Double.compare(left_value, right_value) == 0;
+        }
+
+        @Override
+        Object apply(Object left_value, Object right_value) {
+            return Interpreter.isEqual(left_value, right_value);
+        }
+    }
+
+    static class NotEqual extends Comparison {
+        NotEqual(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean applyNumber(double left_value, double right_value) {
+            return Double.compare(left_value, right_value) != 0;
+        }
+
+        @Override
+        Object apply(Object left_value, Object right_value) {
+            return !Interpreter.isEqual(left_value, right_value);
+        }
+    }
+
+    static class Negate extends ExprNode {
+        private final Token operator;
+        private final ExprNode right;
+        private int state = UNINITIALIZED;
+
+        Negate(Token operator, ExprNode right) {
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            if (state == NUMBER) {
+                try {
+                    return executeNumber(environment);
+                } catch (UnexpectedResult result) {
+                    return result.value;
+                }
+            }
+
+            Object value = right.execute(environment);
+            if (state == UNINITIALIZED) state = value instanceof Double ? NUMBER : GENERIC;
+            return negate(value);
+        }
+
+        @Override
+        double executeNumber(Environment environment) throws UnexpectedResult {
+            if (state != NUMBER) return super.executeNumber(environment);
+            try {
+                return -right.executeNumber(environment);
+            } catch (UnexpectedResult result) {
+                state = GENERIC;
+                return expectNumber(negate(result.value));
+            }
+        }
+
+        private Object negate(Object value) {
+            Interpreter.checkNumberOperand(operator, value);
+            return -(double)value;
+        }
+    }
+
+    static class Not extends ExprNode {
+        private final ExprNode right;
+        private int state = UNINITIALIZED;
+
+        Not(ExprNode right) {
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            if (state == BOOLEAN) {
+                try {
+                    return executeBoolean(environment);
+                } catch (UnexpectedResult result) {
+                    return result.value;
+                }
+            }
+
+            Object value = right.execute(environment);
+            if (state == UNINITIALIZED) state = value instanceof Boolean ? BOOLEAN : GENERIC;
+            return !Interpreter.isTruthy(value);
+        }
+
+        @Override
+        boolean executeBoolean(Environment environment) throws UnexpectedResult {
+            if (state != BOOLEAN) return super.executeBoolean(environment);
+            try {
+                return !right.executeBoolean(environment);
+            } catch (UnexpectedResult result) {
+                // '!' accepts anything, so there is no error to report, only the specialization to give up
+                state = GENERIC;
+                return !Interpreter.isTruthy(result.value);
+            }
+        }
+    }
+
+    // short-circuit
+    static class And extends ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        And(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = left.execute(environment);
+            if (!Interpreter.isTruthy(value)) return value;
+            return right.execute(environment);
+        }
+    }
+
+    static class Or extends ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        Or(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = left.execute(environment);
+            if (Interpreter.isTruthy(value)) return value;
+            return right.execute(environment);
+        }
+    }
+
+    //! -------------------Calls and objects------------------------
+
+    // the nodes a call compiles to; in a 'return' they can also hand the call back as a TailCall
+    abstract static class CallSite extends ExprNode {
+        // evaluates callee and arguments, then returns a TailCall for a LoxFunction or the result of anything else
+        abstract Object tailCall(Environment environment);
+    }
+
+    static class Call extends CallSite {
+        private final Interpreter interpreter;
+        private final ExprNode callee;
+        private final Token paren;
+        private final ExprNode[] arguments;
+
+        Call(Interpreter interpreter, ExprNode callee, Token paren, ExprNode[] arguments) {
+            this.interpreter = interpreter;
+            this.callee = callee;
+            this.paren = paren;
+            this.arguments = arguments;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return call(interpreter, callee.execute(environment), paren, arguments, environment);
+        }
+
+        @Override
+        Object tailCall(Environment environment) {
+            return ExprNode.tailCall(interpreter, callee.execute(environment), paren, arguments, environment);
+        }
+    }
+
+    static Object tailCall(Interpreter interpreter, Object function, Token paren, ExprNode[] arguments,
+                           Environment environment) {
+        Object[] values = evaluateArray(arguments, environment);
+        LoxCallable callable = callable(function, paren, values.length);
+        if (callable instanceof LoxFunction) return new TailCall((LoxFunction)callable, null, values);
+
+        // classes and natives run no Lox body of their own, there is nothing to trampoline
+        return callable.call(interpreter, Arrays.asList(values));
+    }
+
+    static Object tailInvoke(LoxFunction method, LoxInstance instance, Token paren, ExprNode[] arguments,
+                             Environment environment) {
+        Object[] values = evaluateArray(arguments, environment);
+        checkArity(method, paren, values.length);
+        return new TailCall(method, instance, values);
+    }
+
+    // same protocol as the Interpreter: up to four arguments go through the fixed-arity entry points,
+    // and all of them are evaluated before the callee is checked
+    static Object call(Interpreter interpreter, Object function, Token paren, ExprNode[] arguments,
+                       Environment environment) {
+        switch (arguments.length) {
+            case 0:
+                return callable(function, paren, 0).call0(interpreter);
+            case 1: {
+                Object a = arguments[0].execute(environment);
+                return callable(function, paren, 1).call1(interpreter, a);
+            }
+            case 2: {
+                Object a = arguments[0].execute(environment);
+                Object b = arguments[1].execute(environment);
+                return callable(function, paren, 2).call2(interpreter, a, b);
+            }
+            case 3: {
+                Object a = arguments[0].execute(environment);
+                Object b = arguments[1].execute(environment);
+                Object c = arguments[2].execute(environment);
+                return callable(function, paren, 3).call3(interpreter, a, b, c);
+            }
+            case 4: {
+                Object a = arguments[0].execute(environment);
+                Object b = arguments[1].execute(environment);
+                Object c = arguments[2].execute(environment);
+                Object d = arguments[3].execute(environment);
+                return callable(function, paren, 4).call4(interpreter, a, b, c, d);
+            }
+            default: {
+                List<Object> values = evaluate(arguments, environment);
+                return callable(function, paren, values.size()).call(interpreter, values);
+            }
+        }
+    }
+
+    static Object invoke(Interpreter interpreter, LoxFunction method, LoxInstance instance, Token paren,
+                         ExprNode[] arguments, Environment environment) {
+        switch (arguments.length) {
+            case 0:
+                checkArity(method, paren, 0);
+                return method.invoke0(interpreter, instance);
+            case 1: {
+                Object a = arguments[0].execute(environment);
+                checkArity(method, paren, 1);
+                return method.invoke1(interpreter, instance, a);
+            }
+            case 2: {
+                Object a = arguments[0].execute(environment);
+                Object b = arguments[1].execute(environment);
+                checkArity(method, paren, 2);
+                return method.invoke2(interpreter, instance, a, b);
+            }
+            case 3: {
+                Object a = arguments[0].execute(environment);
+                Object b = arguments[1].execute(environment);
+                Object c = arguments[2].execute(environment);
+                checkArity(method, paren, 3);
+                return method.invoke3(interpreter, instance, a, b, c);
+            }
+            case 4: {
+                Object a = arguments[0].execute(environment);
+                Object b = arguments[1].execute(environment);
+                Object c = arguments[2].execute(environment);
+                Object d = arguments[3].execute(environment);
+                checkArity(method, paren, 4);
+                return method.invoke4(interpreter, instance, a, b, c, d);
+            }
+            default: {
+                List<Object> values = evaluate(arguments, environment);
+                checkArity(method, paren, values.size());
+                return method.invoke(interpreter, instance, values);
+            }
+        }
+    }
+
+    private static LoxCallable callable(Object function, Token paren, int argumentCount) {
+        if (!(function instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+
+        LoxCallable callable = (LoxCallable)function;
+        checkArity(callable, paren, argumentCount);
+        return callable;
+    }
+
+    private static void checkArity(LoxCallable callable, Token paren, int argumentCount) {
+        if (argumentCount != callable.arity()) {
+            throw new RuntimeError(paren, "Expected " + callable.arity() + " arguments but got " + argumentCount);
+        }
+    }
+
+    private static Object[] evaluateArray(ExprNode[] arguments, Environment environment) {
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = arguments[i].execute(environment);
+        }
+        return values;
+    }
+
+    private static List<Object> evaluate(ExprNode[] arguments, Environment environment) {
+        List<Object> values = new ArrayList<>(arguments.length);
+        for (ExprNode argument : arguments) {
+            values.add(argument.execute(environment));
+        }
+        return values;
+    }
+
+    // obj.name(args): the method is invoked directly on the receiver, no bound method is created
+    static class Invoke extends CallSite {
+        private final Interpreter interpreter;
+        private final ExprNode object;
+        private final Token name;
+        private final Token paren;
+        private final ExprNode[] arguments;
+        private final PropertyCache cache = new PropertyCache();
+
+        Invoke(Interpreter interpreter, ExprNode object, Token name, Token paren, ExprNode[] arguments) {
+            this.interpreter = interpreter;
+            this.object = object;
+            this.name = name;
+            this.paren = paren;
+            this.arguments = arguments;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = object.execute(environment);
+            if (!(value instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instance have properties.");
+            }
+
+            LoxInstance instance = (LoxInstance)value;
+            LoxFunction method = cache.method(instance, name);
+            if (method != null) return invoke(interpreter, method, instance, paren, arguments, environment);
+
+            // a field that holds something callable
+            return call(interpreter, cache.get(instance, name), paren, arguments, environment);
+        }
+
+        @Override
+        Object tailCall(Environment environment) {
+            Object value = object.execute(environment);
+            if (!(value instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instance have properties.");
+            }
+
+            LoxInstance instance = (LoxInstance)value;
+            LoxFunction method = cache.method(instance, name);
+            if (method != null) return tailInvoke(method, instance, paren, arguments, environment);
+            return ExprNode.tailCall(interpreter, cache.get(instance, name), paren, arguments, environment);
+        }
+    }
+
+    // super.name(args), same as Super followed by a call, without the bound method
+    static class SuperInvoke extends CallSite {
+        private final Interpreter interpreter;
+        private final int depth;
+        private final Token method;
+        private final Token paren;
+        private final ExprNode[] arguments;
+
+        SuperInvoke(Interpreter interpreter, int depth, Token method, Token paren, ExprNode[] arguments) {
+            this.interpreter = interpreter;
+            this.depth = depth;
+            this.method = method;
+            this.paren = paren;
+            this.arguments = arguments;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            LoxInstance object = (LoxInstance)environment.getAt(depth - 1, 0);
+            return invoke(interpreter, superMethod(environment), object, paren, arguments, environment);
+        }
+
+        @Override
+        Object tailCall(Environment environment) {
+            LoxInstance object = (LoxInstance)environment.getAt(depth - 1, 0);
+            return tailInvoke(superMethod(environment), object, paren, arguments, environment);
+        }
+
+        private LoxFunction superMethod(Environment environment) {
+            LoxClass superclass = (LoxClass)environment.getAt(depth, 0);
+            LoxFunction function = superclass.findMethod(method.symbol);
+            if (function == null) {
+                throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+            }
+            return function;
+        }
+    }
+
+    static class Get extends ExprNode {
+        private final ExprNode object;
+        private final Token name;
+        private final PropertyCache cache = new PropertyCache();
+
+        Get(ExprNode object, Token name) {
+            this.object = object;
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = object.execute(environment);
+            if (value instanceof LoxInstance) {
+                return cache.get((LoxInstance)value, name);
+            }
+
+            throw new RuntimeError(name, "Only instance have properties.");
+        }
+    }
+
+    static class Set extends ExprNode {
+        private final ExprNode object;
+        private final Token name;
+        private final ExprNode value;
+        private final PropertyCache cache = new PropertyCache();
+
+        Set(ExprNode object, Token name, ExprNode value) {
+            this.object = object;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object target = object.execute(environment);
+
+            if (!(target instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Obly instance have fields.");
+            }
+
+            Object result = value.execute(environment);
+            cache.set((LoxInstance)target, name, result);
+            return result;
+        }
+    }
+
+    // 'super' is in slot 0 at depth, 'this' in slot 0 of the method's environment, one closer
+    static class Super extends ExprNode {
+        private final int depth;
+        private final Token method;
+
+        Super(int depth, Token method) {
+            this.depth = depth;
+            this.method = method;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            LoxClass superclass = (LoxClass)environment.getAt(depth, 0);
+            LoxInstance object = (LoxInstance)environment.getAt(depth - 1, 0);
+
+            LoxFunction function = superclass.findMethod(method.symbol);
+            if (function == null) {
+                throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+            }
+            return function.bind(object);
+        }
+    }
+
+    // under --annotate every expression is wrapped in one, which counts it; the primitive paths stay primitive
+    static class Counted extends ExprNode {
+        private final Expr expr;
+        private final ExprNode expression;
+
+        Counted(Expr expr, ExprNode expression) {
+            this.expr = expr;
+            this.expression = expression;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            LineProfiler.expression(expr);
+            return expression.execute(environment);
+        }
+
+        @Override
+        double executeNumber(Environment environment) throws UnexpectedResult {
+            LineProfiler.expression(expr);
+            return expression.executeNumber(environment);
+        }
+
+        @Override
+        boolean executeBoolean(Environment environment) throws UnexpectedResult {
+            LineProfiler.expression(expr);
+            return expression.executeBoolean(environment);
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            LineProfiler.expression(expr);
+            return expression.executeCondition(environment);
+        }
+    }
+}
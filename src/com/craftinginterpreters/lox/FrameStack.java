@@ -0,0 +1,38 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// The environments of the calls and blocks no closure captures (see Resolver.Scope), reused like the frames
+// of a call stack: a call or block takes the next one when it starts and gives it back when it completes,
+// so most calls allocate nothing. Every Interpreter has its own, there is one per thread running Lox.
+class FrameStack {
+    private Environment[] frames = new Environment[64];
+    private int top = 0;
+
+    // an environment of at least 'size' slots, linked to 'enclosing'
+    Environment push(Environment enclosing, int size) {
+        if (top == frames.length) frames = Arrays.copyOf(frames, top * 2);
+
+        Environment frame = frames[top];
+        if (frame == null || frame.size() < size) {
+            // a frame only grows, the next call at this depth is likely to need as many slots
+            frame = new Environment(enclosing, size);
+            frames[top] = frame;
+        } else {
+            frame.enclosing = enclosing;
+        }
+        top++;
+        return frame;
+    }
+
+    // gives back the environment the matching push returned, after dropping the 'size' values it held
+    void pop(Environment frame, int size) {
+        frame.clear(size);
+        top--;
+    }
+
+    // the environments handed out and not given back yet, none between two programs
+    int depth() {
+        return top;
+    }
+}
@@ -1,39 +1,37 @@
 package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 
 public class Interpreter implements Expr.Visitor<Object>,
-                                    Stmt.Visitor<Void>{
+                                    Stmt.Visitor<Object>{
+
+    // Statements complete with NORMAL, or with the value of a 'return' that has to reach the enclosing call.
+    // Handing the value back as an ordinary result, instead of throwing it, keeps returns out of exception unwinding.
+    static final Object NORMAL = new Object();
 
     final Environment globals = new Environment();
     Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // the environments of the calls and blocks no closure captures
+    final FrameStack frames = new FrameStack();
+    // the calls in progress, for --sample
+    final CallStack calls = new CallStack();
 
 
     Interpreter() {
-        globals.define("clock", new LoxCallable(){
-            @Override
-            public int arity(){return 0;};
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments){
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
-
-            @Override
-            public String toString(){return "{native fn}";}
-        });
+        globals.define(Symbol.intern("clock"), new NativeFunction("clock", 0,
+            arguments -> (double)System.currentTimeMillis() / 1000.0));
     }
 
    
 
     
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Object visitClassStmt(Stmt.Class stmt) {
 
         // superclass may evaluate to other kind of object, so we use type Object 
         Object superclass = null;
@@ -45,26 +43,26 @@ public class Interpreter implements Expr.Visitor<Object>,
         }
 
         // spilt the declaration and definition for allowing reference to the class inside its own method
-        environment.define(stmt.name.lexeme, null);
+        define(stmt.slot, stmt.name, null);
 
         // if the class has a superclass, we need to add an enclosing environment for 'super' 
         // between the original closure and the environment for the method 
         if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment = new Environment(environment, 1);
+            environment.define(0, superclass);
         }
 
         // using a local map to store the methods
-        Map<String, LoxFunction> methods = new HashMap<>();
+        Map<Symbol, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
             // the current environment where the class is defined is the closure ot the methods
             // For methods, we check the name. If it equals with "init", we set the isInitializer to true to make it always return 'this'
             LoxFunction function = new LoxFunction(method, environment,
-                method.name.lexeme.equals("init"));
-            methods.put(method.name.lexeme, function);
+                method.name.symbol == Symbol.INIT);
+            methods.put(method.name.symbol, function);
         }
 
-        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, methods);
+        LoxClass klass = new LoxClass(stmt.name.lexeme, stmt.name.line, (LoxClass)superclass, methods);
 
         // after we add an enclosing environment for 'super', we backtrace to the original environment
         // because we only need this new environment to create the environment for 'super'
@@ -72,53 +70,102 @@ public class Interpreter implements Expr.Visitor<Object>,
             environment = environment.enclosing;
         }
 
-        environment.assign(stmt.name, klass);
-        return null;
+        if (stmt.slot < 0) {
+            globals.assign(stmt.name, klass);
+        } else {
+            environment.define(stmt.slot, klass);
+        }
+        return NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt){
+    public Object visitReturnStmt(Stmt.Return stmt){
+        if (stmt.tailCall) return tailCall((Expr.Call)stmt.value);
+
         // the default return value is nil
         Object value = null;
         if(stmt.value != null) value = evaluate(stmt.value);
 
-        throw new Return(value);
+        return value;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt){
+    public Object visitFunctionStmt(Stmt.Function stmt){
         // the visit of Function(Decl) translate it to LoxFunction
         // For actual function declarations, isInitializer is always false.
         LoxFunction function = new LoxFunction(stmt, environment, false);
         // and bind the Function(Decl) name to the invocable Loxfunction
-        environment.define(stmt.name.lexeme, function);
-        return null;
+        define(stmt.slot, stmt.name, function);
+        return NORMAL;
     }
     @Override
-    public Void visitWhileStmt(Stmt.While stmt){
+    public Object visitWhileStmt(Stmt.While stmt){
+        // 'while (true)' and a 'for' without a condition loop without evaluating it every time
+        if(isAlwaysTrue(stmt.condition)){
+            for(;;){
+                Object completion = execute(stmt.body);
+                if (completion != NORMAL) return completion;
+            }
+        }
         while(isTruthy(evaluate(stmt.condition))){
-            execute(stmt.body);
+            Object completion = execute(stmt.body);
+            if (completion != NORMAL) return completion;
         }
-        return null;
+        return NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt){
+    public Object visitForStmt(Stmt.For stmt){
+        // the loop variable gets one environment for the whole loop, and the body and increment run in it,
+        // so an iteration only allocates when a closure captures its body's block
+        Environment previous = this.environment;
+        boolean pooled = stmt.frameSize > 0 && !stmt.captured;
+        if(pooled) this.environment = frames.push(previous, stmt.frameSize);
+        else if(stmt.frameSize > 0) this.environment = new Environment(previous, stmt.frameSize);
+        Environment loop = this.environment;
+        try{
+            if(stmt.initializer != null) execute(stmt.initializer);
+
+            boolean forever = stmt.condition == null || isAlwaysTrue(stmt.condition);
+            while(forever || isTruthy(evaluate(stmt.condition))){
+                Object completion = execute(stmt.body);
+                if (completion != NORMAL) return completion;
+                if(stmt.increment != null) evaluate(stmt.increment);
+            }
+            return NORMAL;
+        } finally{
+            if(pooled) frames.pop(loop, stmt.frameSize);
+            this.environment = previous;
+        }
+    }
+
+    @Override
+    public Object visitIfStmt(Stmt.If stmt){
         if(isTruthy(evaluate(stmt.condition))){
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         }else if(stmt.elseBranch != null){
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
 
-        return null;
+        return NORMAL;
     }
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt){
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Object visitBlockStmt(Stmt.Block stmt){
+        // a block that declares nothing has no environment of its own, the Resolver didn't count it in any distance
+        if (stmt.frameSize == 0) return executeBlock(stmt.statements, environment);
+        if (stmt.captured) return executeBlock(stmt.statements, new Environment(environment, stmt.frameSize));
+
+        // nothing can reach the environment once the block completes, so it goes back to the frame stack
+        Environment frame = frames.push(environment, stmt.frameSize);
+        try {
+            return executeBlock(stmt.statements, frame);
+        } finally {
+            frames.pop(frame, stmt.frameSize);
+        }
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment){
+    // returns NORMAL, or the value of a 'return' inside the block
+    Object executeBlock(List<Stmt> statements, Environment environment){
         // record the enclosing environment
         Environment previous = this.environment;
         try{
@@ -126,8 +173,10 @@ public class Interpreter implements Expr.Visitor<Object>,
             this.environment = environment;
 
             for(Stmt statement : statements){
-                execute(statement);
+                Object completion = execute(statement);
+                if (completion != NORMAL) return completion;
             }
+            return NORMAL;
         // even though an error is thrown, it return to the enclosing environment
         // which is very useful in REPL mode 
         }finally{
@@ -135,14 +184,23 @@ public class Interpreter implements Expr.Visitor<Object>,
         }
     }
     @Override
-    public Void visitVarStmt(Stmt.Var stmt){
+    public Object visitVarStmt(Stmt.Var stmt){
         Object value = null;
         if(stmt.initializer != null){
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        define(stmt.slot, stmt.name, value);
+        return NORMAL;
+    }
+
+    // a declaration either fills the slot the Resolver assigned, or binds a global by name
+    private void define(int slot, Token name, Object value) {
+        if (slot < 0) {
+            globals.define(name.symbol, value);
+        } else {
+            environment.define(slot, value);
+        }
     }
 
 
@@ -150,19 +208,8 @@ public class Interpreter implements Expr.Visitor<Object>,
     
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        // We look up the surrounding class’s superclass by looking up “super” in the proper environment.
-        // actually, 'super' is in the second enclosing environment
-        // and 'this' is in the first enclosing environment
-        // so we can change the locals.get(expr) directly to 2
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
-        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
-
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
-
-        if (method == null) {
-            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme +"'.");
-        }
+        LoxInstance object = superReceiver(expr);
+        LoxFunction method = superMethod(expr);
         /*
          * When we access a method, we also need to bind this to the object the method is accessed from.
          * In an expression like doughnut.cook , the object is whatever we get from evaluating doughnut . In a super expression like super.cook , 
@@ -171,10 +218,27 @@ public class Interpreter implements Expr.Visitor<Object>,
          */
         return method.bind(object);
     }
+
+    // We look up the surrounding class’s superclass by looking up “super” in the proper environment.
+    // 'super' is in the environment just outside the method's,
+    // and 'this' is in slot 0 of the method's own environment, one hop closer
+    private LoxFunction superMethod(Expr.Super expr) {
+        LoxClass superclass = (LoxClass)environment.getAt(expr.depth, 0);
+        LoxFunction method = superclass.findMethod(expr.method.symbol);
+
+        if (method == null) {
+            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme +"'.");
+        }
+        return method;
+    }
+
+    private LoxInstance superReceiver(Expr.Super expr) {
+        return (LoxInstance)environment.getAt(expr.depth - 1, 0);
+    }
     
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth, expr.slot);
     }
 
     @Override
@@ -186,7 +250,7 @@ public class Interpreter implements Expr.Visitor<Object>,
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name, value);
+        expr.cache.set((LoxInstance)object, expr.name, value);
         return value;
     }
 
@@ -194,7 +258,7 @@ public class Interpreter implements Expr.Visitor<Object>,
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+            return expr.cache.get((LoxInstance)object, expr.name);
         }
 
         throw new RuntimeError(expr.name, "Only instance have properties.");
@@ -202,22 +266,179 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitCallExpr(Expr.Call expr){
-        Object callee = evaluate(expr.callee);
+        // obj.method(args) and super.method(args) invoke the method directly on the receiver,
+        // without creating a bound method that is called once and thrown away
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)expr.callee;
+            Object object = evaluate(get.object);
+            if (!(object instanceof LoxInstance)) {
+                throw new RuntimeError(get.name, "Only instance have properties.");
+            }
 
-        List<Object> arguments = new ArrayList<>();
-        for(Expr argument : expr.arguments){
-            arguments.add(evaluate(argument));
+            LoxInstance instance = (LoxInstance)object;
+            LoxFunction method = get.cache.method(instance, get.name);
+            if (method != null) return invoke(expr, method, instance);
+
+            // a field that holds something callable
+            return call(expr, get.cache.get(instance, get.name));
         }
 
+        if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super)expr.callee;
+            LoxInstance object = superReceiver(superExpr);
+            return invoke(expr, superMethod(superExpr), object);
+        }
+
+        return call(expr, evaluate(expr.callee));
+    }
+
+    // 'return f(args);' evaluates the callee and the arguments just like visitCallExpr,
+    // but a LoxFunction isn't called here: it goes back as a TailCall to the trampoline of the function returning
+    private Object tailCall(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)expr.callee;
+            Object object = evaluate(get.object);
+            if (!(object instanceof LoxInstance)) {
+                throw new RuntimeError(get.name, "Only instance have properties.");
+            }
+
+            LoxInstance instance = (LoxInstance)object;
+            LoxFunction method = get.cache.method(instance, get.name);
+            if (method != null) {
+                Object[] arguments = evaluateArgumentArray(expr.arguments);
+                checkArity(expr, method, arguments.length);
+                return new TailCall(method, instance, arguments);
+            }
+            return tailCall(expr, get.cache.get(instance, get.name));
+        }
+
+        if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super)expr.callee;
+            LoxInstance object = superReceiver(superExpr);
+            LoxFunction method = superMethod(superExpr);
+            Object[] arguments = evaluateArgumentArray(expr.arguments);
+            checkArity(expr, method, arguments.length);
+            return new TailCall(method, object, arguments);
+        }
+
+        return tailCall(expr, evaluate(expr.callee));
+    }
+
+    private Object tailCall(Expr.Call expr, Object callee) {
+        Object[] arguments = evaluateArgumentArray(expr.arguments);
+        LoxCallable function = callable(expr, callee, arguments.length);
+        if (function instanceof LoxFunction) return new TailCall((LoxFunction)function, null, arguments);
+
+        // classes and natives run no Lox body of their own, there is nothing to trampoline
+        return function.call(this, Arrays.asList(arguments));
+    }
+
+    // Calls with up to four arguments keep them in Java locals and use the fixed-arity entry points,
+    // longer ones build the argument list. The arguments are evaluated before the callee is checked.
+    private Object invoke(Expr.Call expr, LoxFunction method, LoxInstance instance) {
+        List<Expr> args = expr.arguments;
+        switch (args.size()) {
+            case 0:
+                checkArity(expr, method, 0);
+                return method.invoke0(this, instance);
+            case 1: {
+                Object a = evaluate(args.get(0));
+                checkArity(expr, method, 1);
+                return method.invoke1(this, instance, a);
+            }
+            case 2: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                checkArity(expr, method, 2);
+                return method.invoke2(this, instance, a, b);
+            }
+            case 3: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                Object c = evaluate(args.get(2));
+                checkArity(expr, method, 3);
+                return method.invoke3(this, instance, a, b, c);
+            }
+            case 4: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                Object c = evaluate(args.get(2));
+                Object d = evaluate(args.get(3));
+                checkArity(expr, method, 4);
+                return method.invoke4(this, instance, a, b, c, d);
+            }
+            default: {
+                List<Object> arguments = evaluateArguments(args);
+                checkArity(expr, method, arguments.size());
+                return method.invoke(this, instance, arguments);
+            }
+        }
+    }
+
+    private Object call(Expr.Call expr, Object callee) {
+        List<Expr> args = expr.arguments;
+        switch (args.size()) {
+            case 0:
+                return callable(expr, callee, 0).call0(this);
+            case 1: {
+                Object a = evaluate(args.get(0));
+                return callable(expr, callee, 1).call1(this, a);
+            }
+            case 2: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                return callable(expr, callee, 2).call2(this, a, b);
+            }
+            case 3: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                Object c = evaluate(args.get(2));
+                return callable(expr, callee, 3).call3(this, a, b, c);
+            }
+            case 4: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                Object c = evaluate(args.get(2));
+                Object d = evaluate(args.get(3));
+                return callable(expr, callee, 4).call4(this, a, b, c, d);
+            }
+            default: {
+                List<Object> arguments = evaluateArguments(args);
+                return callable(expr, callee, arguments.size()).call(this, arguments);
+            }
+        }
+    }
+
+    private static LoxCallable callable(Expr.Call expr, Object callee, int argumentCount) {
         if(!(callee instanceof LoxCallable)){
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable)callee;
-        if(arguments.size() != function.arity()){
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size());
+        checkArity(expr, function, argumentCount);
+        return function;
+    }
+
+    private static void checkArity(Expr.Call expr, LoxCallable function, int argumentCount) {
+        if(argumentCount != function.arity()){
+            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + argumentCount);
+        }
+    }
+
+    private Object[] evaluateArgumentArray(List<Expr> argumentExprs) {
+        Object[] arguments = new Object[argumentExprs.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(argumentExprs.get(i));
         }
-        return function.call(this, arguments);
+        return arguments;
+    }
+
+    private List<Object> evaluateArguments(List<Expr> argumentExprs) {
+        List<Object> arguments = new ArrayList<>(argumentExprs.size());
+        for(Expr argument : argumentExprs){
+            arguments.add(evaluate(argument));
+        }
+        return arguments;
     }
     @Override
     public Object visitLogicalExpr(Expr.Logical expr){
@@ -236,9 +457,8 @@ public class Interpreter implements Expr.Visitor<Object>,
     public Object visitAssignExpr(Expr.Assign expr){
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.depth >= 0) {
+            environment.assignAt(expr.depth, expr.slot, value);
         } else {
             globals.assign(expr.name, value);
         }
@@ -248,29 +468,32 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr){
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth, expr.slot);
     }
 
-    private Object lookUpVariable(Token name, Expr expr){
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    private Object lookUpVariable(Token name, int depth, int slot){
+        if (depth >= 0) {
+            return environment.getAt(depth, slot);
         } else{
             return globals.get(name);
         }
     }
     
     void interpret(List<Stmt> statements){
+        if (Sampler.ENABLED) calls.start();
         try {
            for(Stmt stmt : statements){
                 execute(stmt);
            }
         } catch (RuntimeError error) {
+            if (Profiler.ENABLED) Profiler.unwind();
             Lox.runtimeError(error);
+        } finally {
+            if (Sampler.ENABLED) calls.stop();
         }
     }
 
-    private String stringfy(Object object){
+    static String stringfy(Object object){
         if(object == null) return "nil";
 
         if(object instanceof Double){
@@ -284,18 +507,25 @@ public class Interpreter implements Expr.Visitor<Object>,
         return object.toString();
     }
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt){
+    public Object visitExpressionStmt(Stmt.Expression stmt){
         evaluate(stmt.expression);
-        return null;
+        return NORMAL;
+    }
+    @Override
+    public Object visitImportStmt(Stmt.Import stmt){
+        // the ModuleLoader has already put the module's statements in place of the import
+        return NORMAL;
     }
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt){
+    public Object visitPrintStmt(Stmt.Print stmt){
         Object value = evaluate(stmt.expression);
         System.out.println(stringfy(value));
-        return null;
+        return NORMAL;
     }
-    private void execute(Stmt stmt){
-        stmt.accept(this);
+    private Object execute(Stmt stmt){
+        if (Sampler.ENABLED) calls.line(stmt.line);
+        if (LineProfiler.ENABLED) LineProfiler.statement(stmt);
+        return stmt.accept(this);
     }
     @Override
     public Object visitLiteralExpr(Expr.Literal expr){
@@ -308,6 +538,7 @@ public class Interpreter implements Expr.Visitor<Object>,
     }
 
     private Object evaluate(Expr expr){
+        if (LineProfiler.ENABLED) LineProfiler.expression(expr);
         return expr.accept(this);
     }
 
@@ -326,12 +557,17 @@ public class Interpreter implements Expr.Visitor<Object>,
         // Unreachable
         return null;
     }
-    private void checkNumberOperand(Token operator, Object operand){
+    static void checkNumberOperand(Token operator, Object operand){
         if(operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private boolean isTruthy(Object object){
+    // a condition that is a truthy literal, like the 'true' the Parser puts in a 'for' without one
+    static boolean isAlwaysTrue(Expr condition){
+        return condition instanceof Expr.Literal && isTruthy(((Expr.Literal)condition).value);
+    }
+
+    static boolean isTruthy(Object object){
         if(object == null) return false;
         if(object instanceof Boolean) return (boolean)object;
         return true;
@@ -390,20 +626,15 @@ public class Interpreter implements Expr.Visitor<Object>,
         // Unreachabale
         return null;
     }
-    private void checkNumberOperands(Token token, Object left_expr, Object right_expr){
+    static void checkNumberOperands(Token token, Object left_expr, Object right_expr){
         if(left_expr instanceof Double && right_expr instanceof Double) return;
         throw new RuntimeError(token, "Operands must be numbers.");
     }
 
-    private boolean isEqual(Object a, Object b){
+    static boolean isEqual(Object a, Object b){
         if(a == null && b == null) return true;
         if(a == null) return false;
         
         return a.equals(b);
     }
-
-     // Resolver Pass
-     void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
 }
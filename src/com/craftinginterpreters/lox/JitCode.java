@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox;
+
+// Base class of the hidden classes the JitCompiler generates for hot functions.
+abstract class JitCode {
+    // the compiled body calls the function through its global name, so that name must still refer to it
+    boolean callsItself = false;
+
+    // the caller has already checked the guards, so every argument is a Double
+    abstract Object invoke(Object[] arguments);
+}
@@ -0,0 +1,595 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Tier-up compiler for hot Lox functions.
+// Once a LoxFunction has been called THRESHOLD times, its body is translated to JVM bytecode
+// in a hidden class, so HotSpot can compile it like any other Java method.
+//
+// Only numeric kernels are compiled: every value is a number (a JVM double) or a boolean (a JVM int),
+// parameters are numbers, the function only calls itself, and it always ends in 'return <number>;'.
+// Everything else (strings, nil, objects, closures over outer variables, other calls) keeps running
+// in the interpreter. Inside that subset no runtime error can occur, so the only guards are checked
+// on entry: all arguments are numbers and the function's global name still refers to the function.
+class JitCompiler implements Expr.Visitor<JitCompiler.Type>, Stmt.Visitor<Void> {
+    static final int THRESHOLD = 1000;
+    // set from the command line, the JIT can be switched off to compare against the plain interpreter
+    static boolean enabled = true;
+
+    private static final String DOUBLE = "java/lang/Double";
+    private static final String JIT_CODE = "com/craftinginterpreters/lox/JitCode";
+
+    enum Type {
+        NUMBER,
+        BOOL
+    }
+
+    // a function body uses something outside the compilable subset
+    private static class Unsupported extends RuntimeException {
+        Unsupported(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    private static class Local {
+        final int index;
+        final Type type;
+
+        Local(int index, Type type) {
+            this.index = index;
+            this.type = type;
+        }
+    }
+
+    private final Stmt.Function function;
+    private final String className;
+    private final String runDescriptor;
+    private final JitClassWriter writer = new JitClassWriter();
+    private final Code code = new Code();
+    // mirrors the Interpreter's environments inside the function: one array of locals per scope, indexed by slot
+    private final List<Local[]> scopes = new ArrayList<>();
+    // start of run(), where a self tail call jumps back to with the new arguments
+    private final Code.Label start = new Code.Label();
+    private int nextLocal = 0;
+    private boolean callsItself = false;
+
+    private JitCompiler(Stmt.Function function) {
+        this.function = function;
+        this.className = "com/craftinginterpreters/lox/Jit$" + function.name.lexeme;
+
+        StringBuilder descriptor = new StringBuilder("(");
+        for (int i = 0; i < function.params.size(); i++) descriptor.append('D');
+        this.runDescriptor = descriptor.append(")D").toString();
+    }
+
+    // returns null when the function is outside the compilable subset
+    static JitCode compile(Stmt.Function function) {
+        try {
+            JitCompiler compiler = new JitCompiler(function);
+            byte[] bytes = compiler.generate();
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            JitCode code = (JitCode)lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+            code.callsItself = compiler.callsItself;
+            return code;
+        } catch (Unsupported unsupported) {
+            return null;
+        } catch (Throwable error) {
+            // a bug in the generated code must never take the program down, the interpreter is always correct
+            return null;
+        }
+    }
+
+    // checked on every call from the interpreter before the compiled code may run
+    static boolean guard(LoxFunction function, JitCode code, Interpreter interpreter, Object[] arguments) {
+        for (Object argument : arguments) {
+            if (!(argument instanceof Double)) return false;
+        }
+        return !code.callsItself || interpreter.globals.lookup(function.name()) == function;
+    }
+
+    private byte[] generate() {
+        if (!alwaysReturns(function.body)) {
+            throw new Unsupported("function can complete without returning a number");
+        }
+
+        // static double run(double...): the function body itself
+        Local[] frame = new Local[function.frameSize];
+        for (int i = 0; i < function.params.size(); i++) {
+            frame[i] = new Local(nextLocal, Type.NUMBER);
+            nextLocal += 2;
+        }
+        // a function that declares nothing has no scope, the Resolver didn't count one
+        if (function.frameSize > 0) scopes.add(frame);
+        code.mark(start);
+        for (Stmt statement : function.body) {
+            statement(statement);
+        }
+        // unreachable, since alwaysReturns() holds, but the verifier can't tell that code never falls off the end
+        code.op(Code.DCONST_0, 2);
+        code.op(Code.DRETURN, -2);
+        if (nextLocal > 255) throw new Unsupported("too many locals");
+        addMethod(JitClassWriter.ACC_STATIC, "run", runDescriptor, code, nextLocal);
+
+        addMethod(JitClassWriter.ACC_PUBLIC, "<init>", "()V", constructor(), 1);
+        addMethod(0, "invoke", "([Ljava/lang/Object;)Ljava/lang/Object;", invoke(), 2);
+        return writer.toByteArray(className, JIT_CODE);
+    }
+
+    private void addMethod(int access, String name, String descriptor, Code body, int maxLocals) {
+        writer.addMethod(access, name, descriptor, body.toByteArray(), body.maxStack, maxLocals);
+    }
+
+    private Code constructor() {
+        Code init = new Code();
+        init.op(Code.ALOAD_0, 1);
+        init.opShort(Code.INVOKESPECIAL, writer.methodRef(JIT_CODE, "<init>", "()V"), -1);
+        init.op(Code.RETURN, 0);
+        return init;
+    }
+
+    // Object invoke(Object[] arguments): unbox the arguments, run, box the result
+    private Code invoke() {
+        Code invoke = new Code();
+        for (int i = 0; i < function.params.size(); i++) {
+            invoke.op(Code.ALOAD_1, 1);
+            invoke.op(Code.SIPUSH, 1);
+            invoke.u2(i);
+            invoke.op(Code.AALOAD, -1);
+            invoke.opShort(Code.CHECKCAST, writer.classRef(DOUBLE), 0);
+            invoke.opShort(Code.INVOKEVIRTUAL, writer.methodRef(DOUBLE, "doubleValue", "()D"), 1);
+        }
+        invoke.opShort(Code.INVOKESTATIC, writer.methodRef(className, "run", runDescriptor), 2 - 2 * function.params.size());
+        invoke.opShort(Code.INVOKESTATIC, writer.methodRef(DOUBLE, "valueOf", "(D)Ljava/lang/Double;"), -1);
+        invoke.op(Code.ARETURN, -1);
+        return invoke;
+    }
+
+    //! -------------------Stmts------------------------
+
+    private void statement(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        pop(expression(stmt.expression));
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        throw new Unsupported("import");
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        code.opShort(Code.GETSTATIC, writer.fieldRef("java/lang/System", "out", "Ljava/io/PrintStream;"), 1);
+        Type type = expression(stmt.expression);
+        if (type == Type.NUMBER) {
+            code.opShort(Code.INVOKESTATIC, writer.methodRef(DOUBLE, "valueOf", "(D)Ljava/lang/Double;"), -1);
+        } else {
+            code.opShort(Code.INVOKESTATIC, writer.methodRef("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;"), 0);
+        }
+        code.opShort(Code.INVOKESTATIC, writer.methodRef("com/craftinginterpreters/lox/Interpreter", "stringfy", "(Ljava/lang/Object;)Ljava/lang/String;"), 0);
+        code.opShort(Code.INVOKEVIRTUAL, writer.methodRef("java/io/PrintStream", "println", "(Ljava/lang/String;)V"), -2);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // 'var x;' holds nil
+        if (stmt.initializer == null) throw new Unsupported("variable without a number or boolean value");
+
+        Type type = expression(stmt.initializer);
+        Local local = new Local(nextLocal, type);
+        nextLocal += size(type);
+        scopes.get(scopes.size() - 1)[stmt.slot] = local;
+        store(local);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // like the Resolver, a block without declarations has no scope
+        if (stmt.frameSize > 0) scopes.add(new Local[stmt.frameSize]);
+        for (Stmt statement : stmt.statements) {
+            statement(statement);
+        }
+        if (stmt.frameSize > 0) scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        Code.Label elseLabel = new Code.Label();
+        Code.Label end = new Code.Label();
+
+        condition(stmt.condition);
+        code.jump(Code.IFEQ, elseLabel, -1);
+        statement(stmt.thenBranch);
+        code.jump(Code.GOTO, end, 0);
+        code.mark(elseLabel);
+        if (stmt.elseBranch != null) statement(stmt.elseBranch);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Code.Label loop = new Code.Label();
+        Code.Label exit = new Code.Label();
+
+        code.mark(loop);
+        condition(stmt.condition);
+        code.jump(Code.IFEQ, exit, -1);
+        statement(stmt.body);
+        code.jump(Code.GOTO, loop, 0);
+        code.mark(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.frameSize > 0) scopes.add(new Local[stmt.frameSize]);
+        if (stmt.initializer != null) statement(stmt.initializer);
+
+        Code.Label loop = new Code.Label();
+        Code.Label exit = new Code.Label();
+        code.mark(loop);
+        if (stmt.condition != null) {
+            condition(stmt.condition);
+            code.jump(Code.IFEQ, exit, -1);
+        }
+        statement(stmt.body);
+        if (stmt.increment != null) pop(expression(stmt.increment));
+        code.jump(Code.GOTO, loop, 0);
+        code.mark(exit);
+
+        if (stmt.frameSize > 0) scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        // a self call in tail position becomes a loop: overwrite the parameters and start over
+        if (stmt.tailCall && isSelfCall((Expr.Call)stmt.value)) {
+            Expr.Call call = (Expr.Call)stmt.value;
+            for (Expr argument : call.arguments) {
+                if (expression(argument) != Type.NUMBER) throw new Unsupported("non-number argument");
+            }
+            for (int i = call.arguments.size() - 1; i >= 0; i--) {
+                store(scopes.get(0)[i]);
+            }
+            callsItself = true;
+            code.jump(Code.GOTO, start, 0);
+            return null;
+        }
+
+        if (stmt.value == null || expression(stmt.value) != Type.NUMBER) {
+            throw new Unsupported("return of a non-number");
+        }
+        code.op(Code.DRETURN, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported("nested function");
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported("class declaration");
+    }
+
+    private void condition(Expr condition) {
+        // numbers are always truthy, but a loop or branch on a number is not a kernel worth compiling
+        if (expression(condition) != Type.BOOL) throw new Unsupported("non-boolean condition");
+    }
+
+    // whether control can never reach the end of the statements, so run() never has to produce nil
+    private static boolean alwaysReturns(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (alwaysReturns(statement)) return true;
+        }
+        return false;
+    }
+
+    private static boolean alwaysReturns(Stmt stmt) {
+        if (stmt instanceof Stmt.Return) return true;
+        if (stmt instanceof Stmt.Block) return alwaysReturns(((Stmt.Block)stmt).statements);
+        if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If)stmt;
+            return ifStmt.elseBranch != null && alwaysReturns(ifStmt.thenBranch) && alwaysReturns(ifStmt.elseBranch);
+        }
+        if (stmt instanceof Stmt.For) {
+            Expr condition = ((Stmt.For)stmt).condition;
+            return condition == null || Interpreter.isAlwaysTrue(condition);
+        }
+        if (stmt instanceof Stmt.While) {
+            // Lox has no 'break', so 'while (true)' is only left through a return
+            Expr condition = ((Stmt.While)stmt).condition;
+            return condition instanceof Expr.Literal && Boolean.TRUE.equals(((Expr.Literal)condition).value);
+        }
+        return false;
+    }
+
+    //! -------------------Exprs------------------------
+
+    private Type expression(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof Double) {
+            double number = (double)expr.value;
+            if (Double.doubleToRawLongBits(number) == 0L) {
+                code.op(Code.DCONST_0, 2);
+            } else if (number == 1.0) {
+                code.op(Code.DCONST_1, 2);
+            } else {
+                code.opShort(Code.LDC2_W, writer.doubleConstant(number), 2);
+            }
+            return Type.NUMBER;
+        }
+        if (expr.value instanceof Boolean) {
+            code.op((boolean)expr.value ? Code.ICONST_1 : Code.ICONST_0, 1);
+            return Type.BOOL;
+        }
+        throw new Unsupported("string or nil literal");
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr) {
+        return expression(expr.expression);
+    }
+
+    @Override
+    public Type visitVariableExpr(Expr.Variable expr) {
+        Local local = local(expr.depth, expr.slot);
+        code.opByte(local.type == Type.NUMBER ? Code.DLOAD : Code.ILOAD, local.index, size(local.type));
+        return local.type;
+    }
+
+    @Override
+    public Type visitAssignExpr(Expr.Assign expr) {
+        Local local = local(expr.depth, expr.slot);
+        if (expression(expr.value) != local.type) throw new Unsupported("assignment changes the variable's type");
+        // assignment is an expression, keep a copy of the value as its result
+        code.op(local.type == Type.NUMBER ? Code.DUP2 : Code.DUP, size(local.type));
+        store(local);
+        return local.type;
+    }
+
+    @Override
+    public Type visitUnaryExpr(Expr.Unary expr) {
+        Type type = expression(expr.right);
+        if (expr.operator.type == TokenType.MINUS && type == Type.NUMBER) {
+            code.op(Code.DNEG, 0);
+            return Type.NUMBER;
+        }
+        if (expr.operator.type == TokenType.BANG && type == Type.BOOL) {
+            code.op(Code.ICONST_1, 1);
+            code.op(Code.IXOR, -1);
+            return Type.BOOL;
+        }
+        throw new Unsupported("unary operator on the wrong type");
+    }
+
+    @Override
+    public Type visitBinaryExpr(Expr.Binary expr) {
+        Type left = expression(expr.left);
+        Type right = expression(expr.right);
+
+        if (left == Type.BOOL && right == Type.BOOL) {
+            switch (expr.operator.type) {
+                case EQUAL_EQUAL: return compare(Code.IF_ICMPNE, -2);
+                case BANG_EQUAL:  return compare(Code.IF_ICMPEQ, -2);
+                default: throw new Unsupported("arithmetic on booleans");
+            }
+        }
+        if (left != Type.NUMBER || right != Type.NUMBER) throw new Unsupported("mixed operand types");
+
+        switch (expr.operator.type) {
+            case PLUS:  code.op(Code.DADD, -2); return Type.NUMBER;
+            case MINUS: code.op(Code.DSUB, -2); return Type.NUMBER;
+            case STAR:  code.op(Code.DMUL, -2); return Type.NUMBER;
+            case SLASH: code.op(Code.DDIV, -2); return Type.NUMBER;
+
+            // NaN makes every ordered comparison false: dcmpg pushes 1 for '<'/'<=', dcmpl pushes -1 for '>'/'>='
+            case LESS:          code.op(Code.DCMPG, -3); return compare(Code.IFGE, -1);
+            case LESS_EQUAL:    code.op(Code.DCMPG, -3); return compare(Code.IFGT, -1);
+            case GREATER:       code.op(Code.DCMPL, -3); return compare(Code.IFLE, -1);
+            case GREATER_EQUAL: code.op(Code.DCMPL, -3); return compare(Code.IFLT, -1);
+
+            // the Interpreter compares with Double.equals(), which Double.compare() matches (NaN == NaN, 0 != -0)
+            case EQUAL_EQUAL:
+                code.opShort(Code.INVOKESTATIC, writer.methodRef(DOUBLE, "compare", "(DD)I"), -3);
+                return compare(Code.IFNE, -1);
+            case BANG_EQUAL:
+                code.opShort(Code.INVOKESTATIC, writer.methodRef(DOUBLE, "compare", "(DD)I"), -3);
+                return compare(Code.IFEQ, -1);
+        }
+        throw new Unsupported("operator " + expr.operator.type);
+    }
+
+    // turns a conditional branch into a 0/1 on the stack: jumpIfFalse skips the 'true' push
+    private Type compare(int jumpIfFalse, int stackEffect) {
+        Code.Label isFalse = new Code.Label();
+        Code.Label end = new Code.Label();
+        code.jump(jumpIfFalse, isFalse, stackEffect);
+        code.op(Code.ICONST_1, 1);
+        code.jump(Code.GOTO, end, 0);
+        code.stack -= 1;
+        code.mark(isFalse);
+        code.op(Code.ICONST_0, 1);
+        code.mark(end);
+        return Type.BOOL;
+    }
+
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr) {
+        // short-circuit: the left operand is the result when it decides the outcome
+        Code.Label end = new Code.Label();
+        if (expression(expr.left) != Type.BOOL) throw new Unsupported("logical operator on a number");
+        code.op(Code.DUP, 1);
+        code.jump(expr.operator.type == TokenType.AND ? Code.IFEQ : Code.IFNE, end, -1);
+        code.op(Code.POP, -1);
+        if (expression(expr.right) != Type.BOOL) throw new Unsupported("logical operator on a number");
+        code.mark(end);
+        return Type.BOOL;
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.Call expr) {
+        if (!isSelfCall(expr)) throw new Unsupported("call of another function");
+
+        for (Expr argument : expr.arguments) {
+            if (expression(argument) != Type.NUMBER) throw new Unsupported("non-number argument");
+        }
+        callsItself = true;
+        code.opShort(Code.INVOKESTATIC, writer.methodRef(className, "run", runDescriptor), 2 - 2 * expr.arguments.size());
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitGetExpr(Expr.Get expr) {
+        throw new Unsupported("property access");
+    }
+
+    @Override
+    public Type visitSetExpr(Expr.Set expr) {
+        throw new Unsupported("property access");
+    }
+
+    @Override
+    public Type visitThisExpr(Expr.This expr) {
+        throw new Unsupported("'this'");
+    }
+
+    @Override
+    public Type visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported("'super'");
+    }
+
+    //! -------------------Helpers------------------------
+
+    // the only call a kernel may make is to itself, through its global name
+    private boolean isSelfCall(Expr.Call expr) {
+        if (!(expr.callee instanceof Expr.Variable)) return false;
+        Expr.Variable callee = (Expr.Variable)expr.callee;
+        return callee.depth < 0 && callee.name.symbol == function.name.symbol
+            && expr.arguments.size() == function.params.size();
+    }
+
+    private Local local(int depth, int slot) {
+        // globals and variables of enclosing functions stay in the interpreter
+        if (depth < 0 || depth >= scopes.size()) throw new Unsupported("non-local variable");
+        Local local = scopes.get(scopes.size() - 1 - depth)[slot];
+        if (local == null) throw new Unsupported("variable declared outside the subset");
+        return local;
+    }
+
+    private void store(Local local) {
+        code.opByte(local.type == Type.NUMBER ? Code.DSTORE : Code.ISTORE, local.index, -size(local.type));
+    }
+
+    private void pop(Type type) {
+        code.op(type == Type.NUMBER ? Code.POP2 : Code.POP, -size(type));
+    }
+
+    private static int size(Type type) {
+        return type == Type.NUMBER ? 2 : 1;
+    }
+
+    // A method body being emitted, tracking the operand stack depth so max_stack comes out right.
+    private static class Code {
+        static final int ICONST_0 = 0x03, ICONST_1 = 0x04, DCONST_0 = 0x0e, DCONST_1 = 0x0f;
+        static final int SIPUSH = 0x11, LDC2_W = 0x14;
+        static final int ILOAD = 0x15, DLOAD = 0x18, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b;
+        static final int ISTORE = 0x36, DSTORE = 0x39;
+        static final int AALOAD = 0x32;
+        static final int POP = 0x57, POP2 = 0x58, DUP = 0x59, DUP2 = 0x5c;
+        static final int DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DNEG = 0x77, IXOR = 0x82;
+        static final int DCMPL = 0x97, DCMPG = 0x98;
+        static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+        static final int IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, GOTO = 0xa7;
+        static final int DRETURN = 0xaf, ARETURN = 0xb0, RETURN = 0xb1;
+        static final int GETSTATIC = 0xb2, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+        static final int CHECKCAST = 0xc0;
+
+        static class Label {
+            int position = -1;
+            final List<Integer> branches = new ArrayList<>();
+        }
+
+        private final List<Label> labels = new ArrayList<>();
+        private byte[] bytes = new byte[64];
+        private int length = 0;
+        int stack = 0;
+        int maxStack = 0;
+
+        void op(int opcode, int stackEffect) {
+            u1(opcode);
+            adjust(stackEffect);
+        }
+
+        void opByte(int opcode, int operand, int stackEffect) {
+            u1(opcode);
+            u1(operand);
+            adjust(stackEffect);
+        }
+
+        void opShort(int opcode, int operand, int stackEffect) {
+            u1(opcode);
+            u2(operand);
+            adjust(stackEffect);
+        }
+
+        void jump(int opcode, Label target, int stackEffect) {
+            if (target.branches.isEmpty()) labels.add(target);
+            target.branches.add(length);
+            u1(opcode);
+            u2(0);
+            adjust(stackEffect);
+        }
+
+        void mark(Label label) {
+            label.position = length;
+        }
+
+        void u1(int value) {
+            if (length == bytes.length) bytes = Arrays.copyOf(bytes, length * 2);
+            bytes[length++] = (byte)value;
+        }
+
+        void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void adjust(int stackEffect) {
+            stack += stackEffect;
+            if (stack > maxStack) maxStack = stack;
+        }
+
+        // patches the branch offsets, which are relative to the branch instruction
+        byte[] toByteArray() {
+            if (length > 0xffff) throw new Unsupported("method too large");
+            for (Label label : labels) {
+                for (int branch : label.branches) {
+                    int offset = label.position - branch;
+                    if (offset != (short)offset) throw new Unsupported("branch too far");
+                    bytes[branch + 1] = (byte)(offset >> 8);
+                    bytes[branch + 2] = (byte)offset;
+                }
+            }
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The line profiler behind --annotate: counts how often every statement and expression runs and how much time
+// is spent on every source line, then prints each source annotated with its counts and times, hot lines first.
+// The Parser numbers the nodes of every source it parses; a node id is the source's index in its high bits and
+// the node's number within the source in the low ones, and the counts live in arrays indexed by that number,
+// so counting is two array loads and an increment. The time between two statements goes to the line of the
+// first one, a function that returns gives the clock back to the line that called it.
+// ENABLED is set up like Profiler.ENABLED, from a property Lox.main sets before anything parses.
+class LineProfiler {
+    static final boolean ENABLED = Boolean.getBoolean("lox.annotate");
+    // the file --annotate=FILE writes the listing to, null for stderr
+    static String output = null;
+
+    private static final int NODE_BITS = 20;
+    private static final int MAX_NODES = 1 << NODE_BITS;
+    // the sign bit stays clear, -1 is a node without an id
+    private static final int MAX_SOURCES = 1 << (31 - NODE_BITS);
+
+    // what was counted for one parsed source, a module or a line of the REPL
+    static class Source {
+        final String name;
+        // the source text when it doesn't come from a file, a file is read again for the listing
+        private final String text;
+        private final Path path;
+        private final int index;
+        // the line of every node, by its number
+        private int[] lines = new int[256];
+        private int nodes = 0;
+        private long[] counts;
+        private long[] nanos;
+        // whether a node may never run without that meaning code didn't: a literal, which an engine may skip
+        // ('while (true)'), an import, which linking replaces, or a node the Optimizer replaced
+        private boolean[] passive = new boolean[256];
+
+        private Source(String name, Path path, String text, int index) {
+            this.name = name;
+            this.path = path;
+            this.text = text;
+            this.index = index;
+        }
+
+        // gives every node of a freshly parsed source its id, called by the Parser
+        void number(List<Stmt> statements) {
+            new Numberer(this).rewrite(statements);
+            counts = new long[nodes];
+            int last = 0;
+            for (int i = 0; i < nodes; i++) {
+                last = Math.max(last, lines[i]);
+            }
+            nanos = new long[last + 1];
+        }
+
+        private int add(int line, boolean passive) {
+            if (nodes == MAX_NODES) return -1;
+            if (nodes == lines.length) {
+                lines = Arrays.copyOf(lines, nodes * 2);
+                this.passive = Arrays.copyOf(this.passive, nodes * 2);
+            }
+            lines[nodes] = line;
+            this.passive[nodes] = passive;
+            return index << NODE_BITS | nodes++;
+        }
+
+        private List<String> text() throws IOException {
+            if (path != null) return Files.readAllLines(path);
+            return Arrays.asList(text.split("\n", -1));
+        }
+    }
+
+    // numbers the nodes in the order they appear, an expression without a token takes the last line seen
+    private static class Numberer extends AstRewriter {
+        private final Source source;
+        private int line = 0;
+
+        Numberer(Source source) {
+            this.source = source;
+        }
+
+        @Override
+        protected Stmt rewrite(Stmt stmt) {
+            if (stmt.line > 0) line = stmt.line;
+            stmt.id = source.add(line, stmt instanceof Stmt.Import);
+            return super.rewrite(stmt);
+        }
+
+        @Override
+        protected Expr rewrite(Expr expr) {
+            Token token = token(expr);
+            if (token != null) line = token.line;
+            expr.id = source.add(line, expr instanceof Expr.Literal);
+            return super.rewrite(expr);
+        }
+
+        private static Token token(Expr expr) {
+            if (expr instanceof Expr.Assign) return ((Expr.Assign)expr).name;
+            if (expr instanceof Expr.Binary) return ((Expr.Binary)expr).operator;
+            if (expr instanceof Expr.Call) return ((Expr.Call)expr).paren;
+            if (expr instanceof Expr.Get) return ((Expr.Get)expr).name;
+            if (expr instanceof Expr.Logical) return ((Expr.Logical)expr).operator;
+            if (expr instanceof Expr.Set) return ((Expr.Set)expr).name;
+            if (expr instanceof Expr.Super) return ((Expr.Super)expr).keyword;
+            if (expr instanceof Expr.This) return ((Expr.This)expr).keyword;
+            if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator;
+            if (expr instanceof Expr.Variable) return ((Expr.Variable)expr).name;
+            return null;
+        }
+    }
+
+    // by index; sources are added on the loader threads before the program that uses them runs
+    private static Source[] sources = new Source[16];
+    private static int sourceCount = 0;
+    // the statement whose line the clock runs for, -1 before the first one
+    private static int current = -1;
+    private static long since;
+
+    // a new source to number, null when there are too many to tell apart
+    static synchronized Source source(String name, Path path, String text) {
+        if (sourceCount == MAX_SOURCES) return null;
+        if (sourceCount == sources.length) sources = Arrays.copyOf(sources, sourceCount * 2);
+        Source source = new Source(name, path, text, sourceCount);
+        sources[sourceCount++] = source;
+        return source;
+    }
+
+    // the Optimizer put another node in place of node 'id'
+    static synchronized void replaced(int id) {
+        if (id >= 0) sources[id >>> NODE_BITS].passive[id & (MAX_NODES - 1)] = true;
+    }
+
+    static void statement(Stmt stmt) {
+        if (stmt.id < 0) return;
+        count(stmt.id);
+        if (stmt instanceof Stmt.Return && ((Stmt.Return)stmt).tailCall) {
+            // 'return f();' makes the call without evaluating it as an expression
+            expression(((Stmt.Return)stmt).value);
+        } else if (stmt instanceof Stmt.Class) {
+            // methods are declared with their class, like a function by its 'fun' statement
+            for (Stmt.Function method : ((Stmt.Class)stmt).methods) {
+                if (method.id >= 0) count(method.id);
+            }
+        }
+        move(stmt.id);
+    }
+
+    static void expression(Expr expr) {
+        if (expr.id < 0) return;
+        count(expr.id);
+        // a method call looks the method up without evaluating the callee as an expression
+        if (expr instanceof Expr.Call) {
+            Expr callee = ((Expr.Call)expr).callee;
+            if ((callee instanceof Expr.Get || callee instanceof Expr.Super) && callee.id >= 0) count(callee.id);
+        }
+    }
+
+    // the statement running now, for resume()
+    static int position() {
+        return current;
+    }
+
+    // a call returned to the statement at 'position'
+    static void resume(int position) {
+        if (position >= 0) move(position);
+    }
+
+    private static void count(int id) {
+        sources[id >>> NODE_BITS].counts[id & (MAX_NODES - 1)]++;
+    }
+
+    private static void move(int id) {
+        long now = System.nanoTime();
+        if (current >= 0) {
+            Source source = sources[current >>> NODE_BITS];
+            source.nanos[source.lines[current & (MAX_NODES - 1)]] += now - since;
+        }
+        current = id;
+        since = now;
+    }
+
+    // the listing on stderr or in the --annotate file
+    static void finish() {
+        // the last statement's time
+        move(-1);
+
+        List<String> listing = new ArrayList<>();
+        listing.addAll(hottest(10));
+        for (int i = 0; i < sourceCount; i++) {
+            try {
+                listing.addAll(annotate(sources[i]));
+            } catch (IOException error) {
+                listing.add("Could not read " + sources[i].name + ": " + error.getMessage());
+            }
+        }
+
+        if (output == null) {
+            PrintStream err = System.err;
+            listing.forEach(err::println);
+            return;
+        }
+        try {
+            Files.write(Paths.get(output), listing);
+        } catch (IOException error) {
+            System.err.println("Could not write the listing to " + output + ": " + error.getMessage());
+        }
+    }
+
+    // the lines that took the most time, over all sources
+    private static List<String> hottest(int limit) {
+        long total = 0;
+        List<long[]> lines = new ArrayList<>();
+        for (int i = 0; i < sourceCount; i++) {
+            long[] nanos = sources[i].nanos;
+            if (nanos == null) continue;
+            for (int line = 0; line < nanos.length; line++) {
+                total += nanos[line];
+                if (nanos[line] > 0) lines.add(new long[] {nanos[line], i, line});
+            }
+        }
+        lines.sort((a, b) -> Long.compare(b[0], a[0]));
+
+        List<String> out = new ArrayList<>();
+        out.add("Hottest lines:");
+        for (long[] line : lines.subList(0, Math.min(limit, lines.size()))) {
+            out.add(String.format("%10.2f ms %6.1f%%  %s:%d", line[0] / 1e6, total == 0 ? 0 : line[0] * 100.0 / total,
+                sources[(int)line[1]].name, line[2]));
+        }
+        return out;
+    }
+
+    // every line with the most times any of its nodes ran and its time: '-' for a line without code, '#####'
+    // for one whose code never ran, a '*' after the count when some of its code ran and some didn't;
+    // a passive node that didn't run doesn't count as code
+    private static List<String> annotate(Source source) throws IOException {
+        List<String> out = new ArrayList<>();
+        out.add("");
+        out.add("== " + source.name + " ==");
+        if (source.counts == null) return out;
+
+        List<String> text = source.text();
+        long[] most = new long[text.size() + 1];
+        boolean[] code = new boolean[most.length];
+        boolean[] missed = new boolean[most.length];
+        for (int node = 0; node < source.nodes; node++) {
+            int line = source.lines[node];
+            if (line >= most.length) continue;
+            long count = source.counts[node];
+            if (count == 0 && source.passive[node]) continue;
+            most[line] = Math.max(most[line], count);
+            code[line] = true;
+            if (count == 0) missed[line] = true;
+        }
+
+        for (int line = 1; line <= text.size(); line++) {
+            String count;
+            if (!code[line]) {
+                count = "-";
+            } else if (most[line] == 0) {
+                count = "#####";
+            } else {
+                count = most[line] + (missed[line] ? "*" : "");
+            }
+            long nanos = line < source.nanos.length ? source.nanos[line] : 0;
+            String time = nanos == 0 ? "" : String.format("%.2f", nanos / 1e6);
+            out.add(String.format("%12s %10s %5d | %s", count, time, line, text.get(line - 1)));
+        }
+        return out;
+    }
+}
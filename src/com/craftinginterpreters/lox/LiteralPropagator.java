@@ -0,0 +1,89 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Replaces reads of a local variable that is initialized with a literal and never assigned by the literal itself,
+// so 'var n = 10; ... n * 2 ...' can be folded to 20. A first walk finds the locals that are ever assigned,
+// a second one replaces the reads of the others. Globals are left alone: any code, in any module or later line
+// of the REPL, can assign or redefine them.
+class LiteralPropagator extends AstRewriter {
+    // the local declarations of each environment the walk is in, by slot
+    private final List<Map<Integer, Stmt.Var>> scopes = new ArrayList<>();
+    // the declarations some assignment writes to, found by the first walk
+    private final Set<Stmt.Var> assigned = new HashSet<>();
+    // the literal each declaration is known to hold, keyed on the declaration as it was before this run
+    private final Map<Stmt.Var, Expr.Literal> literals = new HashMap<>();
+    private boolean collecting;
+
+    @Override
+    List<Stmt> rewrite(List<Stmt> program, Optimizer.Stats stats) {
+        // one walk to collect the assignments, then one to replace the reads
+        try {
+            collecting = true;
+            super.rewrite(program, stats);
+            collecting = false;
+            return super.rewrite(program, stats);
+        } finally {
+            assigned.clear();
+            literals.clear();
+        }
+    }
+
+    @Override
+    protected void beginScope() {
+        scopes.add(new HashMap<>());
+    }
+
+    @Override
+    protected void endScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Stmt rewritten = super.visitVarStmt(stmt);
+        if (stmt.slot < 0) return rewritten;
+
+        // it is declared after its initializer ran, which can't read it
+        scopes.get(scopes.size() - 1).put(stmt.slot, stmt);
+        Expr initializer = ((Stmt.Var)rewritten).initializer;
+        if (initializer == null) {
+            literals.put(stmt, new Expr.Literal(null));
+        } else if (isLiteral(initializer)) {
+            literals.put(stmt, (Expr.Literal)initializer);
+        }
+        return rewritten;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr rewritten = super.visitAssignExpr(expr);
+        Stmt.Var declaration = declaration(expr.depth, expr.slot);
+        if (collecting && declaration != null) assigned.add(declaration);
+        return rewritten;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        if (collecting) return expr;
+
+        Stmt.Var declaration = declaration(expr.depth, expr.slot);
+        if (declaration == null || assigned.contains(declaration)) return expr;
+        Expr.Literal literal = literals.get(declaration);
+        if (literal == null) return expr;
+
+        stats.count("variable reads replaced by literals");
+        return literal;
+    }
+
+    // the 'var' declaration a resolved local refers to, null for globals, parameters, functions and classes
+    private Stmt.Var declaration(int depth, int slot) {
+        if (depth < 0 || depth >= scopes.size()) return null;
+        return scopes.get(scopes.size() - 1 - depth).get(slot);
+    }
+}
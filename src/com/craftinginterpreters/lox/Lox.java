@@ -2,33 +2,134 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
 
 
 public class Lox{
 
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
+    // the session: every call of main starts a new one, so the benchmark runners, which call main
+    // again and again, get a fresh program each time like 'jlox script' in a new process
+    private static Interpreter interpreter;
+    private static NodeCompiler nodeCompiler;
+    private static VM vm;
+    private static Optimizer optimizer;
+    private static ModuleLoader modules;
+    // which engine executes the resolved program: 
+    // "tree" (the reference Interpreter), "closure" (NodeCompiler) or "vm" (VmCompiler + VM)
+    private static String engine;
+    // set from the module loader's threads too
+    static volatile boolean hadError = false;
     static boolean hadRuntimeError = false;
+    // --sample's profiler, null without it
+    private static Sampler sampler = null;
+    // the lines the REPL ran, to tell them apart in --annotate's listing
+    private static int lines = 0;
     public static void main(String[] args) throws IOException{
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-
-        }else if(args.length == 1){
-            runFile(args[0]);
+        String script = null;
+        long sampleMillis = 10;
+        long dumpSeconds = 0;
+        String sampleFile = null;
+        startSession();
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                engine = arg.substring("--engine=".length());
+                if (!engine.equals("tree") && !engine.equals("closure") && !engine.equals("vm")) usage();
+            } else if (arg.equals("--no-jit")) {
+                JitCompiler.enabled = false;
+            } else if (arg.equals("--no-optimize")) {
+                Optimizer.enabled = false;
+            } else if (arg.equals("--optimizer-stats")) {
+                Optimizer.printStats = true;
+            } else if (arg.equals("--no-cache")) {
+                AstCache.enabled = false;
+            } else if (arg.equals("--profile") || arg.startsWith("--profile=")) {
+                // before anything reads Profiler.ENABLED; compiled code would call itself unseen, so no JIT
+                System.setProperty("lox.profile", "true");
+                if (arg.startsWith("--profile=")) Profiler.output = arg.substring("--profile=".length());
+                JitCompiler.enabled = false;
+            } else if (arg.equals("--annotate") || arg.startsWith("--annotate=")) {
+                // before anything parses, the Parser numbers the nodes; compiled code isn't counted, so no JIT
+                System.setProperty("lox.annotate", "true");
+                if (arg.startsWith("--annotate=")) LineProfiler.output = arg.substring("--annotate=".length());
+                JitCompiler.enabled = false;
+            } else if (arg.equals("--sample") || arg.startsWith("--sample=")) {
+                // like --profile, before anything reads Sampler.ENABLED
+                System.setProperty("lox.sample", "true");
+                if (arg.startsWith("--sample=")) sampleMillis = number(arg.substring("--sample=".length()));
+            } else if (arg.startsWith("--sample-dump=")) {
+                dumpSeconds = number(arg.substring("--sample-dump=".length()));
+            } else if (arg.startsWith("--sample-file=")) {
+                sampleFile = arg.substring("--sample-file=".length());
+            } else if (script == null && !arg.startsWith("--")) {
+                script = arg;
+            } else {
+                usage();
+            }
+        }
+        // the VM calls its own closures, it has nothing to instrument or publish
+        boolean instrumented = Boolean.getBoolean("lox.profile") || Boolean.getBoolean("lox.sample")
+            || Boolean.getBoolean("lox.annotate");
+        if (instrumented && engine.equals("vm")) usage();
+        if (Sampler.ENABLED) sampler = Sampler.start(interpreter.calls, sampleMillis, dumpSeconds * 1000, sampleFile);
+
+        if(script != null){
+            runFile(script);
         } else{
             runPrompt();
         
         }
     }
 
+    // the options' defaults and new engines and loader; the interned Symbols and the JVM stay warm
+    private static void startSession() {
+        engine = "tree";
+        JitCompiler.enabled = true;
+        Optimizer.enabled = true;
+        Optimizer.printStats = false;
+        AstCache.enabled = true;
+        hadError = false;
+        hadRuntimeError = false;
+        lines = 0;
+
+        interpreter = new Interpreter();
+        nodeCompiler = new NodeCompiler(interpreter);
+        vm = new VM();
+        optimizer = new Optimizer();
+        modules = new ModuleLoader(optimizer);
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--engine=tree|closure|vm] [--no-jit] [--no-optimize] [--optimizer-stats] [--no-cache]");
+        System.out.println("            [--profile[=FILE]] [--sample[=MS]] [--sample-dump=SECONDS] [--sample-file=FILE]");
+        System.out.println("            [--annotate[=FILE]] [script]");
+        System.out.println("--profile reports the time spent in each function on the tree and closure engines,");
+        System.out.println("--profile=FILE writes it to FILE as collapsed stacks for a flame graph.");
+        System.out.println("--sample samples the Lox stack every MS milliseconds (10) on the same engines and writes");
+        System.out.println("the stacks it saw on exit and every --sample-dump seconds, to stderr or FILE.");
+        System.out.println("--annotate lists the sources with how often each line ran and the time spent on it.");
+        System.out.println("--no-cache neither reads nor writes the .loxc caches of the modules' resolved trees.");
+        System.exit(64);
+    }
+
+    private static long number(String text) {
+        try {
+            long number = Long.parseLong(text);
+            if (number > 0) return number;
+        } catch (NumberFormatException error) {
+            // falls through to the usage
+        }
+        usage();
+        return 0;
+    }
+
     private static void runFile(String path) throws IOException{
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset())); 
+        // the script and the modules it imports are scanned, parsed, resolved and optimized by the loader
+        List<Stmt> statements = modules.loadProgram(Paths.get(path));
+        if (!hadError) execute(statements);
+        if (Profiler.ENABLED) Profiler.finish();
+        if (Sampler.ENABLED) sampler.dump();
+        if (LineProfiler.ENABLED) LineProfiler.finish();
 
         // Indicate an error in the exit code.
         if(hadError) System.exit(65);
@@ -46,54 +147,89 @@ public class Lox{
             run(line);
             hadError = false;
         }
+        if (Profiler.ENABLED) Profiler.finish();
+        if (Sampler.ENABLED) sampler.dump();
+        if (LineProfiler.ENABLED) LineProfiler.finish();
     }
 
-    private static void run(String source){
-        // Scanner (Lexical Analysis)
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        // Parser (Syntax Analysis)
-        Parser parser = new Parser(tokens);
+    private static void run(String line){
+        // Scanner (Lexical Analysis) runs lazily, one token ahead of the Parser (Syntax Analysis)
+        Scanner scanner = new Scanner(line);
+        Parser parser = new Parser(scanner, LineProfiler.ENABLED ? LineProfiler.source("<line " + ++lines + ">", null, line) : null);
         List<Stmt> statements = parser.parse();
 
         // If any ParseError happens, we skip the following operation.
         if (hadError) return;
 
         // Resolver (Semantic Analysis)
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
 
         // If any ResolveError happens, we skip the following operation.
         if (hadError) return;
 
+        // Optimizer (constant folding, literal propagation, dead code removal), the loader does this for modules
+        statements = optimizer.optimize(statements, "line");
+
+        // the imports of a line are relative to the working directory
+        statements = modules.link(statements, ModuleLoader.workingDirectory());
+        if (hadError) return;
+
+        execute(statements);
+    }
+
+    private static void execute(List<Stmt> statements){
         // Interpreter (Execution)
-        interpreter.interpret(statements);
+        if (engine.equals("closure")) {
+            nodeCompiler.interpret(statements);
+        } else if (engine.equals("vm")) {
+            VmFunction script = new VmCompiler().compile(statements);
+            // the compiler can still run into limits of the bytecode format
+            if (hadError) return;
+            vm.interpret(script);
+        } else {
+            interpreter.interpret(statements);
+        }
     }
 
     static void error(int line, String message){
-        report(line, "", message);
+        error(null, line, message);
+    }
+
+    // 'file' is the imported module the error is in, null for the main script
+    static void error(String file, int line, String message){
+        report(file, line, "", message);
     }
 
     static void error(Token token, String message){
         if(token.type == TokenType.EOF){
-            report(token.line, " at end ", message);
+            report(token.file, token.line, " at end ", message);
         }else{
-            report(token.line, " at '" + token.lexeme + "'", message);
+            report(token.file, token.line, " at '" + token.lexeme + "'", message);
         }
     }
 
     static void runtimeError(RuntimeError error){
-        System.err.println(error.getMessage() +
-            "\n[line " + error.token.line + "]");
+        runtimeError(error.getMessage(), error.token.file, error.token.line);
+    }
+
+    static void runtimeError(String message, String file, int line){
+        System.err.println(message +
+            "\n" + where(file, line));
         hadRuntimeError = true;
     }
 
-    private static void report(int line, String where, String message){
+    private static void report(String file, int line, String where, String message){
         System.err.println(
-            "[line " + line + "] Error" + where + ": " + message
+            where(file, line) + " Error" + where + ": " + message
         );
         hadError = true;
     }
+
+    // "[line 2]" in the main script, "[lib/c.lox line 2]" in a module it imports
+    private static String where(String file, int line){
+        return file == null ? "[line " + line + "]" : "[" + file + " line " + line + "]";
+    }
 }
 
 
@@ -1,7 +1,33 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 interface  LoxCallable {
     int arity(); 
+    // the generic entry point, for natives and for calls with more than four arguments
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    // Fixed-arity entry points: the engines use these for calls with up to four arguments,
+    // so a LoxFunction can write the arguments straight into its new frame without building a list.
+    // Callers check the arity first. The defaults wrap the arguments up for call().
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, Collections.singletonList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
+
+    default Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return call(interpreter, Arrays.asList(a, b, c, d));
+    }
 }
@@ -1,51 +1,100 @@
 package com.craftinginterpreters.lox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 class LoxClass implements LoxCallable{
     final String name;
-    final Map<String, LoxFunction> methods;
+    // where the class is declared, for --profile
+    final int line;
+    // flattened method table: the class's own methods on top of everything it inherits,
+    // so a lookup is one map access instead of a walk up the superclass chain
+    final Map<Symbol, LoxFunction> methods;
     private final LoxClass superclass;
+    private final LoxFunction initializer;
+    // every instance starts out in this shape, with no fields
+    final Shape rootShape = new Shape(this);
+    // the most fields any instance has had, new instances preallocate that many
+    int fieldCount = 0;
 
-    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+    LoxClass(String name, int line, LoxClass superclass, Map<Symbol, LoxFunction> methods) {
         this.name = name;
+        this.line = line;
         this.superclass = superclass;
-        this.methods = methods;
+        // methods are inherited from the superclass, and the subclass's own methods override them
+        this.methods = superclass == null ? new HashMap<>() : new HashMap<>(superclass.methods);
+        this.methods.putAll(methods);
+        this.initializer = this.methods.get(Symbol.INIT);
+        if (Profiler.ENABLED) Profiler.methods(name, methods);
     }
 
-    LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-
-        // methods are inherited from the superclass.
-        // if we don’t find it on the instance’s class, we recurse up through the superclass chain and look there.
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
-
-        return null;
+    LoxFunction findMethod(Symbol name) {
+        return methods.get(name);
     }
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null) return 0;
         return initializer.arity();
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (Profiler.ENABLED) Profiler.enter(this);
         LoxInstance instance = new LoxInstance(this);
         // When a class is called, after the LoxInstance is created, 
-        // we look for an “init” method. If we find one, we immediately bind and invoke it just like a normal method call.
-        LoxFunction initializer = findMethod("init");
-
+        // we look for an “init” method. If we find one, we immediately invoke it on the new instance just like a method call.
         if (initializer != null) {
-            // if the initializer exists, bind the newly created instance to 'this' in the enclosing environment of the init method
-            // and then call the init method
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, arguments);
         }
+        if (Profiler.ENABLED) Profiler.exit();
+        return instance;
+    }
+
+    // the fixed-arity calls hand the arguments on to the initializer's fixed-arity entry point
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        if (Profiler.ENABLED) Profiler.enter(this);
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) initializer.invoke0(interpreter, instance);
+        if (Profiler.ENABLED) Profiler.exit();
+        return instance;
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        if (Profiler.ENABLED) Profiler.enter(this);
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) initializer.invoke1(interpreter, instance, a);
+        if (Profiler.ENABLED) Profiler.exit();
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        if (Profiler.ENABLED) Profiler.enter(this);
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) initializer.invoke2(interpreter, instance, a, b);
+        if (Profiler.ENABLED) Profiler.exit();
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        if (Profiler.ENABLED) Profiler.enter(this);
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) initializer.invoke3(interpreter, instance, a, b, c);
+        if (Profiler.ENABLED) Profiler.exit();
+        return instance;
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        if (Profiler.ENABLED) Profiler.enter(this);
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) initializer.invoke4(interpreter, instance, a, b, c, d);
+        if (Profiler.ENABLED) Profiler.exit();
         return instance;
     }
 
@@ -6,51 +6,286 @@ public class LoxFunction implements LoxCallable{
     private final Stmt.Function declaration;
     private final Environment closure;
     private final boolean isInitializer;
+    // the body compiled by the NodeCompiler, null when the tree-walking Interpreter runs the function
+    private final StmtNode compiled;
+    // the instance a method was bound to, null for plain functions and for methods in a class's table
+    private final LoxInstance receiver;
     
     LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer){
+        this(declaration, closure, isInitializer, null);
+    }
+
+    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, StmtNode compiled){
+        this(declaration, closure, isInitializer, compiled, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, StmtNode compiled,
+                        LoxInstance receiver){
         this.declaration = declaration;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.compiled = compiled;
+        this.receiver = receiver;
     }
     
+    // only needed when a method is used as a value (var m = obj.method;)
+    // obj.method(args) calls invoke() directly and never creates the bound method
     LoxFunction bind(LoxInstance instance) {
-        // bind a new environment
-        // this environment adds "this" -> callee instance
-        // and the parent of this environment is the original method's closure
-        // env_func ==> env1:"this -> instance" ==> env0:closure
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        // the receiver goes into slot 0 of the method's environment on every call, where the Resolver put "this"
+        return new LoxFunction(declaration, closure, isInitializer, compiled, instance);
     }
     @Override
     public int arity(){
         return declaration.params.size();
     }
 
+    Symbol name() {
+        return declaration.name.symbol;
+    }
+
+    Stmt.Function declaration() {
+        return declaration;
+    }
+
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments){
+        if (receiver != null) return invoke(interpreter, receiver, arguments);
+
+        if (tierUp()) {
+            Object[] values = arguments.toArray();
+            if (JitCompiler.guard(this, declaration.jitCode, interpreter, values)) {
+                return declaration.jitCode.invoke(values);
+            }
+        }
         
         //!! CLOSURE: the parent environment should be which declare it
         //!! NO-CLOSURE: the parent environment shouble just be which the interpreter is current at
         
-        Environment environment = new Environment(closure);
+        // parameters occupy the first slots of the function's environment
+        Environment environment = frame(interpreter);
         for(int i = 0; i < declaration.params.size(); i++){
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+            environment.define(i, arguments.get(i));
         }
+        return execute(interpreter, environment);
+    }
+
+    // call0..call4 store the arguments straight into the call's environment, usually one from the frame stack
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        if (receiver != null) return invoke0(interpreter, receiver);
+        if (tierUp()) {
+            Object[] values = {};
+            if (JitCompiler.guard(this, declaration.jitCode, interpreter, values)) {
+                return declaration.jitCode.invoke(values);
+            }
+        }
+
+        return execute(interpreter, frame(interpreter));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        if (receiver != null) return invoke1(interpreter, receiver, a);
+        if (tierUp()) {
+            Object[] values = {a};
+            if (JitCompiler.guard(this, declaration.jitCode, interpreter, values)) {
+                return declaration.jitCode.invoke(values);
+            }
+        }
+
+        Environment environment = frame(interpreter);
+        environment.define(0, a);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        if (receiver != null) return invoke2(interpreter, receiver, a, b);
+        if (tierUp()) {
+            Object[] values = {a, b};
+            if (JitCompiler.guard(this, declaration.jitCode, interpreter, values)) {
+                return declaration.jitCode.invoke(values);
+            }
+        }
+
+        Environment environment = frame(interpreter);
+        environment.define(0, a);
+        environment.define(1, b);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        if (receiver != null) return invoke3(interpreter, receiver, a, b, c);
+        if (tierUp()) {
+            Object[] values = {a, b, c};
+            if (JitCompiler.guard(this, declaration.jitCode, interpreter, values)) {
+                return declaration.jitCode.invoke(values);
+            }
+        }
+
+        Environment environment = frame(interpreter);
+        environment.define(0, a);
+        environment.define(1, b);
+        environment.define(2, c);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        if (receiver != null) return invoke4(interpreter, receiver, a, b, c, d);
+        if (tierUp()) {
+            Object[] values = {a, b, c, d};
+            if (JitCompiler.guard(this, declaration.jitCode, interpreter, values)) {
+                return declaration.jitCode.invoke(values);
+            }
+        }
+
+        Environment environment = frame(interpreter);
+        environment.define(0, a);
+        environment.define(1, b);
+        environment.define(2, c);
+        environment.define(3, d);
+        return execute(interpreter, environment);
+    }
 
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            // return; (no-returnValue) in init method return 'this'
-            if (isInitializer) return closure.getAt(0, "this");
-            
-            return returnValue.value;
+    // tier up: hot functions are compiled to JVM bytecode once, shared by every closure of the declaration
+    // returns whether compiled code exists, the caller still has to check the guards
+    private boolean tierUp() {
+        if (!JitCompiler.enabled) return false;
+        if (declaration.calls < JitCompiler.THRESHOLD && ++declaration.calls == JitCompiler.THRESHOLD) {
+            declaration.jitCode = JitCompiler.compile(declaration);
         }
+        return declaration.jitCode != null;
+    }
+
+    // calls the function as a method of 'instance': "this" fills slot 0 and the parameters follow it
+    Object invoke(Interpreter interpreter, LoxInstance instance, List<Object> arguments) {
+        Environment environment = methodEnvironment(interpreter, instance);
+        for (int i = 0; i < declaration.params.size(); i++) {
+            environment.define(i + 1, arguments.get(i));
+        }
+        return executeMethod(interpreter, environment, instance);
+    }
+
+    Object invoke0(Interpreter interpreter, LoxInstance instance) {
+        return executeMethod(interpreter, methodEnvironment(interpreter, instance), instance);
+    }
+
+    Object invoke1(Interpreter interpreter, LoxInstance instance, Object a) {
+        Environment environment = methodEnvironment(interpreter, instance);
+        environment.define(1, a);
+        return executeMethod(interpreter, environment, instance);
+    }
+
+    Object invoke2(Interpreter interpreter, LoxInstance instance, Object a, Object b) {
+        Environment environment = methodEnvironment(interpreter, instance);
+        environment.define(1, a);
+        environment.define(2, b);
+        return executeMethod(interpreter, environment, instance);
+    }
+
+    Object invoke3(Interpreter interpreter, LoxInstance instance, Object a, Object b, Object c) {
+        Environment environment = methodEnvironment(interpreter, instance);
+        environment.define(1, a);
+        environment.define(2, b);
+        environment.define(3, c);
+        return executeMethod(interpreter, environment, instance);
+    }
+
+    Object invoke4(Interpreter interpreter, LoxInstance instance, Object a, Object b, Object c, Object d) {
+        Environment environment = methodEnvironment(interpreter, instance);
+        environment.define(1, a);
+        environment.define(2, b);
+        environment.define(3, c);
+        environment.define(4, d);
+        return executeMethod(interpreter, environment, instance);
+    }
+
+    private Environment methodEnvironment(Interpreter interpreter, LoxInstance instance) {
+        Environment environment = frame(interpreter);
+        environment.define(0, instance);
+        return environment;
+    }
+
+    private Object executeMethod(Interpreter interpreter, Environment environment, LoxInstance instance) {
+        Object result = execute(interpreter, environment);
+
+        // special case: init method always return 'this', also on 'return;'
+        if (isInitializer) return instance;
+        return result;
+    }
+
+    // Runs the body, then every tail call it ends in, all in this one Java frame (a trampoline),
+    // so tail-recursive Lox code runs in constant Java stack.
+    private Object execute(Interpreter interpreter, Environment environment) {
+        Object completion = run(interpreter, environment);
+
+        while (completion instanceof TailCall) {
+            TailCall call = (TailCall)completion;
+            LoxFunction function = call.function;
+            LoxInstance instance = call.receiver != null ? call.receiver : function.receiver;
+
+            completion = function.run(interpreter, function.tailCallEnvironment(interpreter, instance, call.arguments));
+            if (function.isInitializer) completion = instance;
+        }
+
+        // falling off the end of the body -> nil
+        if (completion == Interpreter.NORMAL) return null;
+        return completion;
+    }
+
+    // runs the body in an environment from frame(), then gives it back if it came from the frame stack;
+    // for the profilers every run is a call, a tail call ends its caller's before it starts its own
+    private Object run(Interpreter interpreter, Environment environment) {
+        if (Profiler.ENABLED) Profiler.enter(declaration);
+        if (Sampler.ENABLED) interpreter.calls.push(declaration);
+        int caller = LineProfiler.ENABLED ? LineProfiler.position() : -1;
+        Object completion;
+        if (!pooled()) {
+            completion = executeBody(interpreter, environment);
+        } else {
+            try {
+                completion = executeBody(interpreter, environment);
+            } finally {
+                interpreter.frames.pop(environment, declaration.frameSize);
+            }
+        }
+        if (LineProfiler.ENABLED) LineProfiler.resume(caller);
+        if (Sampler.ENABLED) interpreter.calls.pop();
+        if (Profiler.ENABLED) Profiler.exit();
+        return completion;
+    }
+
+    private Object executeBody(Interpreter interpreter, Environment environment) {
+        if (compiled != null) return compiled.execute(environment);
+        return interpreter.executeBlock(declaration.body, environment);
+    }
+
+    private Environment tailCallEnvironment(Interpreter interpreter, LoxInstance instance, Object[] arguments) {
+        Environment environment = frame(interpreter);
+        int first = 0;
+        if (instance != null) {
+            environment.define(0, instance);
+            first = 1;
+        }
+        for (int i = 0; i < arguments.length; i++) {
+            environment.define(first + i, arguments[i]);
+        }
+        return environment;
+    }
+
+    // the environment for a call; a function that declares nothing, not even a parameter, runs in its closure,
+    // and one no closure captures takes its environment from the frame stack
+    private Environment frame(Interpreter interpreter) {
+        if (declaration.frameSize == 0) return closure;
+        if (pooled()) return interpreter.frames.push(closure, declaration.frameSize);
+        return new Environment(closure, declaration.frameSize);
+    }
 
-        // special case: init method always return 'this'
-        if  (isInitializer) return closure.getAt(0, "this");
-        // default return value -> nil 
-        return null;
+    private boolean pooled() {
+        return declaration.frameSize > 0 && !declaration.captured;
     }
 
     @Override
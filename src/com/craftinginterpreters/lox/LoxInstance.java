@@ -1,26 +1,28 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
-
+import java.util.Arrays;
 
+// Fields live in a plain array laid out by the instance's Shape, instead of a per-instance HashMap.
+// Property access sites go through a PropertyCache; get() and set() here are the uncached lookups.
 class LoxInstance {
-    private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    Shape shape;
+    Object[] values;
 
-    
     LoxInstance(LoxClass klass) {
-        this.klass = klass;
+        this.shape = klass.rootShape;
+        // sized for the most fields an instance of the class has had so far, so constructors rarely grow it
+        this.values = new Object[klass.fieldCount];
     }
 
     Object get(Token name) {
         // When looking up a property on an instance, if we don’t find a matching field,
         // we look for a method with that name on the instance’s class.
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        int index = shape.indexOf(name.symbol);
+        if (index >= 0) {
+            return values[index];
         }
 
-        LoxFunction method = klass.findMethod(name.lexeme);
+        LoxFunction method = shape.klass.findMethod(name.symbol);
         if (method != null) return method.bind(this);
 
 
@@ -28,11 +30,29 @@ class LoxInstance {
     }
 
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        int index = shape.indexOf(name.symbol);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+        addField(shape.with(name.symbol), value);
+    }
+
+    // moves the instance to 'next', which is its current shape plus one field
+    void addField(Shape next, Object value) {
+        int index = shape.size;
+        if (index == values.length) {
+            values = Arrays.copyOf(values, Math.max(2, values.length * 2));
+        }
+        values[index] = value;
+        shape = next;
+
+        LoxClass klass = next.klass;
+        if (next.size > klass.fieldCount) klass.fieldCount = next.size;
     }
 
     @Override
     public String toString() {
-        return klass.name + " instance";
+        return shape.klass.name + " instance";
     }
 }
@@ -0,0 +1,50 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Reads a script through a read-only memory mapping and decodes it a chunk at a time as the Scanner asks for characters,
+// so the file's bytes are paged in by the OS instead of being copied onto the heap and decoded into one big String.
+class MappedFileReader extends Reader {
+    private final FileChannel channel;
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder;
+    private boolean flushed = false;
+
+    MappedFileReader(Path path, Charset charset) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        // like new String(bytes, charset), malformed input becomes the replacement character
+        this.decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    @Override
+    public int read(char[] target, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        if (flushed) return -1;
+
+        CharBuffer out = CharBuffer.wrap(target, offset, length);
+        decoder.decode(bytes, out, true);
+        if (!bytes.hasRemaining() && decoder.flush(out).isUnderflow()) {
+            flushed = true;
+        }
+
+        int read = out.position() - offset;
+        return read == 0 && flushed ? -1 : read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,223 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+// Loads a program made of modules. 'import "path";' names another file, relative to the importing one.
+// Every module is scanned, parsed and resolved on its own, the imported ones in parallel on a pool of loader threads:
+// as soon as a module is parsed, loading starts for everything it imports.
+// Linking then puts each module's statements in place of its first import, like concatenating the files,
+// so the engines only ever see one list of statements and a module runs once per session.
+class ModuleLoader {
+
+    static class Module {
+        final Path path;
+        // how errors name the module, null for the main script
+        final String name;
+        final byte[] hash;
+        final List<Stmt> statements;
+
+        Module(Path path, String name, byte[] hash, List<Stmt> statements) {
+            this.path = path;
+            this.name = name;
+            this.hash = hash;
+            this.statements = statements;
+        }
+    }
+
+    // one loader thread per processor; with a single processor, imports are loaded inline, since extra threads
+    // there only compete with the JIT compiler during startup
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final Executor loaders = THREADS == 1 ? Runnable::run : Executors.newFixedThreadPool(THREADS, task -> {
+        Thread thread = new Thread(task, "lox-module-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // runs on each module once it is resolved, before it is cached
+    private final Optimizer optimizer;
+
+    // resolved modules by path, reused for as long as the file's content hash stays the same
+    private final Map<Path, Module> cache = new ConcurrentHashMap<>();
+    // modules that already ran in this session; an edited file is a new Module and runs again
+    private final Set<Module> linked = new HashSet<>();
+
+    ModuleLoader(Optimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    // the statements of the whole program starting at 'file', with its imports linked in
+    List<Stmt> loadProgram(Path file) throws IOException {
+        Path path = normalize(file);
+        Map<Path, CompletableFuture<Module>> loading = new ConcurrentHashMap<>();
+        CompletableFuture<Module> main = new CompletableFuture<>();
+        loading.put(path, main);
+        // the main file is loaded on this thread, so a missing script still fails with its IOException
+        load(main, path, null, loading);
+
+        Set<Module> linking = new HashSet<>();
+        linking.add(main.join());
+        List<Stmt> program = new ArrayList<>();
+        link(main.join().statements, path.getParent(), loading, linking, program);
+        return finish(program, linking);
+    }
+
+    // links the imports of statements that were already parsed and resolved, like a line of the REPL
+    List<Stmt> link(List<Stmt> statements, Path directory) {
+        Map<Path, CompletableFuture<Module>> loading = new ConcurrentHashMap<>();
+        requestImports(statements, directory, loading);
+
+        Set<Module> linking = new HashSet<>();
+        List<Stmt> program = new ArrayList<>();
+        link(statements, directory, loading, linking, program);
+        return finish(program, linking);
+    }
+
+    private List<Stmt> finish(List<Stmt> program, Set<Module> linking) {
+        // with errors nothing runs, so no module counts as run, and the modules are loaded again next time
+        if (Lox.hadError) return program;
+        for (Module module : linking) {
+            cache.put(module.path, module);
+        }
+        linked.addAll(linking);
+        return program;
+    }
+
+    //! -------------------Loading------------------------
+
+    private void load(CompletableFuture<Module> future, Path path, String name,
+                      Map<Path, CompletableFuture<Module>> loading) throws IOException {
+        byte[] hash = hash(path);
+        Module module = cache.get(path);
+        // the tokens know their module's name, a module that used to be the main script is loaded again
+        if (module == null || !Arrays.equals(module.hash, hash) || !Objects.equals(module.name, name)) {
+            module = parse(path, name, hash);
+        }
+        // its imports are requested before anyone can link the module, so linking finds them all loading
+        requestImports(module.statements, path.getParent(), loading);
+        future.complete(module);
+    }
+
+    // starts loading every module the statements import that isn't loading already
+    private void requestImports(List<Stmt> statements, Path directory, Map<Path, CompletableFuture<Module>> loading) {
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Stmt.Import)) continue;
+
+            Path path = resolve(directory, (Stmt.Import)statement);
+            CompletableFuture<Module> future = new CompletableFuture<>();
+            if (loading.putIfAbsent(path, future) != null) continue;
+
+            loaders.execute(() -> {
+                try {
+                    load(future, path, name(path), loading);
+                } catch (IOException | RuntimeException error) {
+                    future.completeExceptionally(error);
+                }
+            });
+        }
+    }
+
+    private Module parse(Path path, String name, byte[] hash) throws IOException {
+        // a cache written by an earlier run for the same source skips the front end and the optimizer entirely
+        // (unless --no-cache turns it off, --optimizer-stats asks what the optimizer does to it,
+        // or --annotate needs the Parser's node ids)
+        boolean useCache = AstCache.enabled && !Optimizer.printStats && !LineProfiler.ENABLED;
+        List<Stmt> cached = useCache ? AstCache.load(path, name, hash, Optimizer.enabled) : null;
+        if (cached != null) return new Module(path, name, hash, cached);
+
+        Scanner scanner;
+        Parser parser;
+        List<Stmt> statements;
+        try (MappedFileReader reader = new MappedFileReader(path, Charset.defaultCharset())) {
+            scanner = new Scanner(reader, name);
+            parser = new Parser(scanner, LineProfiler.ENABLED ? LineProfiler.source(path.toString(), path, null) : null);
+            statements = parser.parse();
+        }
+
+        // like a single script, a module with syntax errors isn't resolved
+        if (!scanner.hadError && !parser.hadError) {
+            Resolver resolver = new Resolver();
+            resolver.resolve(statements);
+            if (!resolver.hadError) {
+                // globals are never propagated, so optimizing each module on its own is as good as the whole program
+                statements = optimizer.optimize(statements, path.getFileName().toString());
+                if (AstCache.enabled) AstCache.store(path, hash, Optimizer.enabled, statements);
+            }
+        }
+        return new Module(path, name, hash, statements);
+    }
+
+    private static byte[] hash(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bytes);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException error) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(error);
+        }
+    }
+
+    //! -------------------Linking------------------------
+
+    private void link(List<Stmt> statements, Path directory, Map<Path, CompletableFuture<Module>> loading,
+                      Set<Module> linking, List<Stmt> program) {
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Stmt.Import)) {
+                program.add(statement);
+                continue;
+            }
+
+            Stmt.Import stmt = (Stmt.Import)statement;
+            Module module;
+            try {
+                module = loading.get(resolve(directory, stmt)).join();
+            } catch (CompletionException error) {
+                Lox.error(stmt.path, "Can't read module '" + stmt.path.literal + "'.");
+                continue;
+            }
+
+            // each module runs once, at its first import; this also stops import cycles
+            if (linked.contains(module) || !linking.add(module)) continue;
+            link(module.statements, module.path.getParent(), loading, linking, program);
+        }
+    }
+
+    private static Path resolve(Path directory, Stmt.Import stmt) {
+        return normalize(directory.resolve((String)stmt.path.literal));
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    // an imported module in error messages: its path from the working directory, or the whole path outside it
+    private static String name(Path path) {
+        Path directory = workingDirectory();
+        return path.startsWith(directory) ? directory.relativize(path).toString() : path.toString();
+    }
+
+    static Path workingDirectory() {
+        return normalize(Paths.get(""));
+    }
+}
@@ -0,0 +1,41 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A function implemented in Java, like clock(). The engines share the class, --profile counts its calls
+// the way it counts those of Lox functions.
+class NativeFunction implements LoxCallable {
+    interface Body {
+        Object call(List<Object> arguments);
+    }
+
+    final String name;
+    private final int arity;
+    private final Body body;
+
+    NativeFunction(String name, int arity, Body body) {
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (!Profiler.ENABLED) return body.call(arguments);
+
+        Profiler.enter(this);
+        Object result = body.call(arguments);
+        Profiler.exit();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "{native fn}";
+    }
+}
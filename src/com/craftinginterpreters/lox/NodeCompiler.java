@@ -0,0 +1,242 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// The closure-compilation engine.
+// After the Resolver has annotated the AST, every Expr/Stmt is compiled once into an ExprNode/StmtNode
+// with its operator and variable coordinates already bound, and the node tree is executed instead of the AST.
+// The tree-walking Interpreter stays the reference engine; both share the globals and the runtime objects.
+class NodeCompiler implements Expr.Visitor<ExprNode>, Stmt.Visitor<StmtNode> {
+    private final Interpreter interpreter;
+    private final Environment globals;
+
+    NodeCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    void interpret(List<Stmt> statements) {
+        StmtNode program = compile(statements);
+        if (Sampler.ENABLED) interpreter.calls.start();
+        try {
+            program.execute(globals);
+        } catch (RuntimeError error) {
+            if (Profiler.ENABLED) Profiler.unwind();
+            Lox.runtimeError(error);
+        } finally {
+            if (Sampler.ENABLED) interpreter.calls.stop();
+        }
+    }
+
+    StmtNode.Sequence compile(List<Stmt> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+        return new StmtNode.Sequence(nodes);
+    }
+
+    private StmtNode compile(Stmt stmt) {
+        StmtNode node = stmt.accept(this);
+        if (LineProfiler.ENABLED) node = new StmtNode.Counted(stmt, node);
+        if (Sampler.ENABLED) node = new StmtNode.Sampled(interpreter.calls, stmt.line, node);
+        return node;
+    }
+
+    private ExprNode compile(Expr expr) {
+        ExprNode node = expr.accept(this);
+        if (LineProfiler.ENABLED) return new ExprNode.Counted(expr, node);
+        return node;
+    }
+
+    //! -------------------Stmts------------------------
+
+    @Override
+    public StmtNode visitClassStmt(Stmt.Class stmt) {
+        ExprNode superclass = stmt.superclass == null ? null : compile(stmt.superclass);
+
+        StmtNode.Sequence[] methods = new StmtNode.Sequence[stmt.methods.size()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = compile(stmt.methods.get(i).body);
+        }
+        return new StmtNode.Class(globals, stmt, superclass, methods);
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            // every Expr.Call compiles to a CallSite; --annotate counts it with the statement
+            return new StmtNode.TailReturn((ExprNode.CallSite)stmt.value.accept(this));
+        }
+        return new StmtNode.Return(stmt.value == null ? null : compile(stmt.value));
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+        return new StmtNode.Function(globals, stmt, compile(stmt.body));
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        // a block that declares nothing has no environment, its statements run in the enclosing one
+        if (stmt.frameSize == 0) return compile(stmt.statements);
+        if (!stmt.captured) return new StmtNode.PooledBlock(interpreter.frames, stmt.frameSize, compile(stmt.statements));
+        return new StmtNode.Block(stmt.frameSize, compile(stmt.statements));
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        return new StmtNode.Expression(compile(stmt.expression));
+    }
+
+    @Override
+    public StmtNode visitImportStmt(Stmt.Import stmt) {
+        // the ModuleLoader has already put the module's statements in place of the import
+        return new StmtNode.Sequence(new StmtNode[0]);
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        return new StmtNode.If(compile(stmt.condition), compile(stmt.thenBranch),
+            stmt.elseBranch == null ? null : compile(stmt.elseBranch));
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        return new StmtNode.Print(compile(stmt.expression));
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt) {
+        ExprNode initializer = stmt.initializer == null ? null : compile(stmt.initializer);
+        if (stmt.slot < 0) {
+            return new StmtNode.GlobalVar(globals, stmt.name.symbol, initializer);
+        }
+        return new StmtNode.LocalVar(stmt.slot, initializer);
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        if (Interpreter.isAlwaysTrue(stmt.condition)) return new StmtNode.Loop(compile(stmt.body));
+        return new StmtNode.While(compile(stmt.condition), compile(stmt.body));
+    }
+
+    @Override
+    public StmtNode visitForStmt(Stmt.For stmt) {
+        boolean forever = stmt.condition == null || Interpreter.isAlwaysTrue(stmt.condition);
+        return new StmtNode.For(stmt.captured ? null : interpreter.frames, stmt.frameSize,
+            stmt.initializer == null ? null : compile(stmt.initializer),
+            forever ? null : compile(stmt.condition),
+            stmt.increment == null ? null : compile(stmt.increment),
+            compile(stmt.body));
+    }
+
+    //! -------------------Exprs------------------------
+
+    @Override
+    public ExprNode visitSuperExpr(Expr.Super expr) {
+        return new ExprNode.Super(expr.depth, expr.method);
+    }
+
+    @Override
+    public ExprNode visitThisExpr(Expr.This expr) {
+        return new ExprNode.LocalVariable(expr.depth, expr.slot);
+    }
+
+    @Override
+    public ExprNode visitSetExpr(Expr.Set expr) {
+        return new ExprNode.Set(compile(expr.object), expr.name, compile(expr.value));
+    }
+
+    @Override
+    public ExprNode visitGetExpr(Expr.Get expr) {
+        return new ExprNode.Get(compile(expr.object), expr.name);
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = compile(expr.arguments.get(i));
+        }
+
+        // method calls are fused so they skip the bound method
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)expr.callee;
+            return new ExprNode.Invoke(interpreter, compile(get.object), get.name, expr.paren, arguments);
+        }
+        if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super)expr.callee;
+            return new ExprNode.SuperInvoke(interpreter, superExpr.depth, superExpr.method, expr.paren, arguments);
+        }
+        return new ExprNode.Call(interpreter, compile(expr.callee), expr.paren, arguments);
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        ExprNode value = compile(expr.value);
+        if (expr.depth < 0) {
+            return new ExprNode.GlobalAssign(globals, expr.name, value);
+        }
+        return new ExprNode.LocalAssign(expr.depth, expr.slot, value);
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        if (expr.operator.type == TokenType.OR) {
+            return new ExprNode.Or(compile(expr.left), compile(expr.right));
+        }
+        return new ExprNode.And(compile(expr.left), compile(expr.right));
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+
+        // the operator switch happens once here instead of on every evaluation
+        switch (expr.operator.type) {
+            case PLUS:          return new ExprNode.Add(expr.operator, left, right);
+            case MINUS:         return new ExprNode.Subtract(expr.operator, left, right);
+            case STAR:          return new ExprNode.Multiply(expr.operator, left, right);
+            case SLASH:         return new ExprNode.Divide(expr.operator, left, right);
+            case GREATER:       return new ExprNode.Greater(expr.operator, left, right);
+            case GREATER_EQUAL: return new ExprNode.GreaterEqual(expr.operator, left, right);
+            case LESS:          return new ExprNode.Less(expr.operator, left, right);
+            case LESS_EQUAL:    return new ExprNode.LessEqual(expr.operator, left, right);
+            case EQUAL_EQUAL:   return new ExprNode.Equal(expr.operator, left, right);
+            case BANG_EQUAL:    return new ExprNode.NotEqual(expr.operator, left, right);
+        }
+
+        // Unreachable
+        throw new IllegalStateException("Unknown binary operator " + expr.operator.type);
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        // parentheses only matter to the parser
+        return compile(expr.expression);
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        return new ExprNode.Literal(expr.value);
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        ExprNode right = compile(expr.right);
+        if (expr.operator.type == TokenType.MINUS) {
+            return new ExprNode.Negate(expr.operator, right);
+        }
+        return new ExprNode.Not(right);
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth < 0) {
+            return new ExprNode.GlobalVariable(globals, expr.name);
+        }
+        return new ExprNode.LocalVariable(expr.depth, expr.slot);
+    }
+}
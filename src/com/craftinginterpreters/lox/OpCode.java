@@ -0,0 +1,61 @@
+package com.craftinginterpreters.lox;
+
+// Instruction set of the bytecode VM.
+// Operands follow the opcode in the code array:
+//   constant indexes and jump offsets take three bytes (big-endian),
+//   local slots and upvalue indexes take one byte, or three in their *_LONG forms for slots past 255,
+//   argument counts take one byte (the Parser allows 255 arguments).
+final class OpCode {
+    static final byte CONSTANT      = 0;  // [index24]        push constants[index]
+    static final byte NIL           = 1;
+    static final byte TRUE          = 2;
+    static final byte FALSE         = 3;
+    static final byte POP           = 4;
+
+    static final byte GET_LOCAL     = 5;  // [slot]
+    static final byte SET_LOCAL     = 6;  // [slot]
+    static final byte GET_GLOBAL    = 7;  // [name24]
+    static final byte DEFINE_GLOBAL = 8;  // [name24]
+    static final byte SET_GLOBAL    = 9;  // [name24]
+    static final byte GET_UPVALUE   = 10; // [index]
+    static final byte SET_UPVALUE   = 11; // [index]
+    static final byte GET_PROPERTY  = 12; // [name24]
+    static final byte SET_PROPERTY  = 13; // [name24]
+    static final byte GET_SUPER     = 14; // [name24]
+
+    static final byte EQUAL         = 15;
+    static final byte NOT_EQUAL     = 16;
+    static final byte GREATER       = 17;
+    static final byte GREATER_EQUAL = 18;
+    static final byte LESS          = 19;
+    static final byte LESS_EQUAL    = 20;
+    static final byte ADD           = 21;
+    static final byte SUBTRACT      = 22;
+    static final byte MULTIPLY      = 23;
+    static final byte DIVIDE        = 24;
+    static final byte NOT           = 25;
+    static final byte NEGATE        = 26;
+
+    static final byte PRINT         = 27;
+    static final byte JUMP          = 28; // [offset24]       forward
+    static final byte JUMP_IF_FALSE = 29; // [offset24]       forward, leaves the condition on the stack
+    static final byte LOOP          = 30; // [offset24]       backward
+
+    static final byte CALL          = 31; // [argc]
+    static final byte INVOKE        = 32; // [name24][argc]   receiver.name(args) without a bound method
+    static final byte SUPER_INVOKE  = 33; // [name24][argc]
+    static final byte CLOSURE       = 34; // [function24] then [isLocal][index24] per upvalue
+    static final byte CLOSE_UPVALUE = 35;
+    static final byte RETURN        = 36;
+
+    static final byte CLASS         = 37; // [name24]
+    static final byte INHERIT       = 38;
+    static final byte METHOD        = 39; // [name24]
+
+    static final byte GET_LOCAL_LONG   = 40; // [slot24]
+    static final byte SET_LOCAL_LONG   = 41; // [slot24]
+    static final byte GET_UPVALUE_LONG = 42; // [index24]
+    static final byte SET_UPVALUE_LONG = 43; // [index24]
+
+    private OpCode() {}
+}
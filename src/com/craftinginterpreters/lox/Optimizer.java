@@ -0,0 +1,81 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+// Simplifies each resolved module before it is cached and run, so work that doesn't depend on the input
+// isn't redone on every execution. The passes are AstRewriters run one after the other, and the whole pipeline
+// runs again while a pass still changes something: a propagated literal can be folded, a folded condition pruned.
+// Every pass only makes the tree smaller or replaces a variable read by a literal, so this ends.
+// Modules are optimized on the loader threads, so every run gets passes of its own.
+class Optimizer {
+    // --no-optimize runs the program as it was parsed, --optimizer-stats reports what changed on stderr
+    static boolean enabled = true;
+    static boolean printStats = false;
+
+    private final List<Supplier<AstRewriter>> passes = new CopyOnWriteArrayList<>();
+
+    Optimizer() {
+        passes.add(ConstantFolder::new);
+        passes.add(LiteralPropagator::new);
+        passes.add(BranchPruner::new);
+    }
+
+    // adds a pass at the end of the pipeline
+    void add(Supplier<AstRewriter> pass) {
+        passes.add(pass);
+    }
+
+    // 'name' is the module the program comes from, for the statistics
+    List<Stmt> optimize(List<Stmt> program, String name) {
+        if (!enabled) return program;
+
+        List<AstRewriter> pipeline = new ArrayList<>();
+        for (Supplier<AstRewriter> pass : passes) {
+            pipeline.add(pass.get());
+        }
+
+        Stats stats = new Stats();
+        long start = System.nanoTime();
+        int changes;
+        do {
+            changes = stats.total;
+            stats.rounds++;
+            for (AstRewriter pass : pipeline) {
+                program = pass.rewrite(program, stats);
+            }
+        } while (stats.total > changes);
+        stats.nanos = System.nanoTime() - start;
+
+        if (printStats) stats.print(name);
+        return program;
+    }
+
+    // how many of each kind of change the passes made
+    static class Stats {
+        private final Map<String, Integer> counts = new LinkedHashMap<>();
+        private int total = 0;
+        private int rounds = 0;
+        private long nanos = 0;
+
+        void count(String change) {
+            counts.merge(change, 1, Integer::sum);
+            total++;
+        }
+
+        private void print(String name) {
+            // one module's lines stay together when several loader threads finish at once
+            synchronized (System.err) {
+                System.err.printf("[optimizer] %s: %d change(s) in %d round(s), %.1f ms%n",
+                    name, total, rounds, nanos / 1e6);
+                for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                    System.err.printf("[optimizer]   %6d %s%n", entry.getValue(), entry.getKey());
+                }
+            }
+        }
+    }
+}
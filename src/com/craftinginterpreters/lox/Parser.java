@@ -2,17 +2,30 @@ package com.craftinginterpreters.lox;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 
 public class Parser {
     private static class ParseError extends RuntimeException{}
-    private final List<Token> tokens;
+    // tokens arrive a window at a time; the grammar only ever looks at the current token and the one before it,
+    // so a window is refilled once the Parser reaches its end, keeping just the previous token
+    private final Scanner scanner;
+    private final TokenBuffer tokens;
     private int current = 0;
+    // whether this parse reported an error, Lox.hadError covers everything else running at the same time
+    boolean hadError = false;
+    // where --annotate counts the nodes of this source, null without it
+    private final LineProfiler.Source source;
 
-    Parser(List<Token> tokens){
-        this.tokens = tokens;
+    Parser(Scanner scanner){
+        this(scanner, null);
+    }
+
+    Parser(Scanner scanner, LineProfiler.Source source){
+        this.scanner = scanner;
+        this.tokens = new TokenBuffer(scanner.file);
+        this.source = source;
+        scanner.fill(tokens);
     }
 
     //! program -> declaration* EOF
@@ -21,23 +34,29 @@ public class Parser {
         while(!isAtEnd()){
             statements.add(declaration());
         }
+        // a program with syntax errors never runs
+        if (source != null && !hadError) source.number(statements);
         return statements;
     }
     //! declaration -> funDecl
     //!              | varDecl
     //!              | statement
     //!              | classDecl
+    //!              | importDecl
 
 
 
     private Stmt declaration(){
+        int line = tokens.line(current);
         try {
             //! classDecl -> "class" IDENTIFIER "{" function* "}"
-            if (match(CLASS)) return classDeclaration();
+            if (match(CLASS)) return at(line, classDeclaration());
             //! funDecl -> “fun" function;
-            if (match(FUN)) return function("function");
+            if (match(FUN)) return at(line, function("function"));
             //! varDecl -> "var" varDeclaration
-            if (match(VAR)) return varDeclaration(); 
+            if (match(VAR)) return at(line, varDeclaration()); 
+            //! importDecl -> "import" STRING ";"
+            if (match(IMPORT)) return at(line, importDeclaration());
             return statement();
         } catch (ParseError error) {
                 synchronize();
@@ -57,17 +76,16 @@ public class Parser {
          */
         Expr.Variable superclass = null;
         if (match(LESS)) {
-            consume(IDENTIFIER, "Expect superclass name.");
-            superclass = new Expr.Variable(previous());
+            superclass = new Expr.Variable(consume(IDENTIFIER, "Expect superclass name."));
         }
-        consume(LEFT_BRACE, "Expect '{' before class body.");
+        expect(LEFT_BRACE, "Expect '{' before class body.");
 
         List<Stmt.Function> methods = new ArrayList<>();
         while(!check(RIGHT_BRACE) && !isAtEnd()){
            methods.add(function("method")); 
         }
 
-        consume(RIGHT_BRACE, "Expect '}' after class body.");
+        expect(RIGHT_BRACE, "Expect '}' after class body.");
 
         return new Stmt.Class(name, superclass, methods);
     }
@@ -75,7 +93,7 @@ public class Parser {
     //! function -> IDENTIFIER "(" parameters?")" block
     private Stmt.Function function(String kind){
         Token name = consume(IDENTIFIER, "Exepect " + kind + " name.");
-        consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
+        expect(LEFT_PAREN, "Expect '(' after " + kind + " name.");
 
         //! parameters -> IDENTIFIER ("," IDENTIFER)*
         List<Token> parameters = new ArrayList<>();
@@ -91,12 +109,12 @@ public class Parser {
             } while (match(COMMA));
 
         }
-        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+        expect(RIGHT_PAREN, "Expect ')' after parameters.");
         
-        consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        expect(LEFT_BRACE, "Expect '{' before " + kind + " body.");
         List<Stmt> body = block();
 
-        return new Stmt.Function(name, parameters, body);
+        return at(name.line, new Stmt.Function(name, parameters, body));
     }
 
     
@@ -108,9 +126,16 @@ public class Parser {
             initializer = expression();
         }
 
-        consume(SEMICOLON, "Expect ';' after variable declaration.");
+        expect(SEMICOLON, "Expect ';' after variable declaration.");
         return new Stmt.Var(name, initializer);
     }
+
+    private Stmt importDeclaration(){
+        Token keyword = previous();
+        Token path = consume(STRING, "Expect module path after 'import'.");
+        expect(SEMICOLON, "Expect ';' after module path.");
+        return new Stmt.Import(keyword, path);
+    }
     //! statement -> exprStmt
     //!            | ifStmt
     //!            | printStmt
@@ -120,14 +145,21 @@ public class Parser {
     //!            | returnStmt
 
     private Stmt statement(){
-        if(match(RETURN)) return returnStatement();
-        if(match(FOR)) return forStatement();
-        if(match(IF)) return ifStatement();
-        if(match(PRINT)) return printStatement();
-        if(match(WHILE)) return whileStatement();
-        if(match(LEFT_BRACE)) return new Stmt.Block(block());
+        int line = tokens.line(current);
+        if(match(RETURN)) return at(line, returnStatement());
+        if(match(FOR)) return at(line, forStatement());
+        if(match(IF)) return at(line, ifStatement());
+        if(match(PRINT)) return at(line, printStatement());
+        if(match(WHILE)) return at(line, whileStatement());
+        if(match(LEFT_BRACE)) return at(line, new Stmt.Block(block()));
 
-        return expressionStatement();
+        return at(line, expressionStatement());
+    }
+
+    // records the line a statement starts on
+    private <T extends Stmt> T at(int line, T stmt) {
+        stmt.line = line;
+        return stmt;
     }
 
     //! returnStmt -> "return" expression? ";"
@@ -139,56 +171,47 @@ public class Parser {
             value = expression();
         }
 
-        consume(SEMICOLON, "Expect ';' after return value.");
+        expect(SEMICOLON, "Expect ';' after return value.");
         return new Stmt.Return(keyword, value);
     }
     //! forStmt -> "for" "(" (varDecl | exprStmt | ";") expression? ";" expression? ")"  statement
     private Stmt forStatement(){
-        consume(LEFT_PAREN, "Expect '(' after 'for'.");
+        expect(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initializer = null;
         if(match(SEMICOLON)){
             initializer = null;
         }else if(match(VAR)){
-            initializer = varDeclaration();
+            initializer = at(tokens.line(current - 1), varDeclaration());
         }else{
-            initializer = expressionStatement();
+            initializer = at(tokens.line(current), expressionStatement());
         }
 
         Expr condition = null;
         if(!check(SEMICOLON)){
             condition = expression();
         }
-        consume(SEMICOLON, "Expect ';' after loop condition.");
+        expect(SEMICOLON, "Expect ';' after loop condition.");
 
         Expr increment = null;
         if(!check(RIGHT_PAREN)){
             increment = expression();
         }
-        consume(RIGHT_PAREN, "Expect ')' after for clauses.");
+        expect(RIGHT_PAREN, "Expect ')' after for clauses.");
 
         Stmt body = statement();
 
-        if(increment != null){
-            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-        }
-
-        if(condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
-
-        if(initializer != null){
-            body = new Stmt.Block(Arrays.asList(initializer, body));
-        }
-        return body;
-
+        // a loop node of its own rather than blocks around a while loop, so the engines keep the loop variable
+        // in one environment and run the increment in it; a missing condition stays null and means forever
+        return new Stmt.For(initializer, condition, increment, body);
     }
 
     
     //! whileStmt -> "while" "(" expression ")" statement
     private Stmt whileStatement(){
-        consume(LEFT_PAREN, "Expect '(' after 'while'.");
+        expect(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
-        consume(RIGHT_PAREN, "Expect ')' after condition.");
+        expect(RIGHT_PAREN, "Expect ')' after condition.");
 
         Stmt body = statement();
 
@@ -196,9 +219,9 @@ public class Parser {
     }
     
     private Stmt ifStatement(){
-        consume(LEFT_PAREN, "Expect '(' after if.");
+        expect(LEFT_PAREN, "Expect '(' after if.");
         Expr condition = expression();
-        consume(RIGHT_PAREN, "Expect ')' after if condition.");
+        expect(RIGHT_PAREN, "Expect ')' after if condition.");
 
         Stmt thenBranch = statement();
         Stmt elseBranch = null;
@@ -218,20 +241,20 @@ public class Parser {
             statements.add(declaration());
         }
 
-        consume(RIGHT_BRACE,"Expect '}' after block.");
+        expect(RIGHT_BRACE,"Expect '}' after block.");
         return statements;
     }
 
     //! exprStmt -> expression ";"
     private Stmt expressionStatement(){
         Expr expr = expression();
-        consume(SEMICOLON, "Expect ';' after expression.");
+        expect(SEMICOLON, "Expect ';' after expression.");
         return new Stmt.Expression(expr);
     }
     //! printStmt -> "print" expression ";"
     private Stmt printStatement(){
         Expr value = expression();
-        consume(SEMICOLON, "Expect ';' after value.");
+        expect(SEMICOLON, "Expect ';' after value.");
         return new Stmt.Print(value);
     }
     //! expression -> assignment 
@@ -248,7 +271,8 @@ public class Parser {
         Expr expr = or();
 
         if(match(EQUAL)){
-            Token equals = previous();
+            // the line alone, the window may have moved on by the time the target turns out invalid
+            int equalsLine = tokens.line(current - 1);
             // right-associativity -> recursive
             Expr value = assignment();
 
@@ -260,7 +284,7 @@ public class Parser {
                 return new Expr.Set(get.object, get.name, value);
             }
 
-            error(equals, "Invalid assignment target.");
+            error(new Token(EQUAL, "=", null, equalsLine, scanner.file), "Invalid assignment target.");
         }
 
         return expr;
@@ -329,27 +353,37 @@ public class Parser {
         if(isAtEnd()){
             return false;
         }
-        return peek().type == type;
+        return peekType() == type;
     }
 
 
-    private Token advance(){
+    private void advance(){
         if(!isAtEnd()){
             current++;
+            if(current == tokens.count()){
+                tokens.retainLast();
+                scanner.fill(tokens);
+                current = 1;
+            }
         }
-        return previous();
     }
 
     private boolean isAtEnd(){
-        return peek().type == EOF;
+        return peekType() == EOF;
+    }
+
+    private TokenType peekType(){
+        return tokens.type(current);
     }
 
+    // Tokens are only built for the parts of the source that end up in the AST or in an error message:
+    // punctuation is expect()ed, statement lines and synchronize() read the buffer directly
     private Token peek(){
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private Token previous(){
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     //! comparison -> term ( (">" | ">=" | "<" | "<=") term )*
@@ -472,13 +506,13 @@ public class Parser {
         
         if (match(LEFT_PAREN)){
             Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression");
+            expect(RIGHT_PAREN, "Expect ')' after expression");
             return new Expr.Grouping(expr);
         }
 
         if (match(SUPER)) {
             Token keyword = previous();
-            consume(DOT, "Expect '.' after 'super'.");
+            expect(DOT, "Expect '.' after 'super'.");
             Token method = consume(IDENTIFIER, "Expect superclass method name.");
             
             return new Expr.Super(keyword, method);
@@ -487,15 +521,24 @@ public class Parser {
         throw error(peek(), "Expect exprssion.");
     }
     
+    // for the tokens that go into the AST
     private Token consume(TokenType type, String message){
+        expect(type, message);
+        return previous();
+    }
+
+    // for the punctuation that only has to be there
+    private void expect(TokenType type, String message){
         if (check(type)){
-            return advance();
+            advance();
+            return;
         }
 
         throw error(peek(), message);
     }
 
     private ParseError error(Token token, String message){
+        hadError = true;
         Lox.error(token, message);
         return new ParseError();
     }
@@ -505,11 +548,11 @@ public class Parser {
         advance();
 
         while(!isAtEnd()){
-            if(previous().type == SEMICOLON){
+            if(tokens.type(current - 1) == SEMICOLON){
                 return;
             }
 
-            switch(peek().type){
+            switch(peekType()){
                 case CLASS:
                 case FUN:
                 case VAR:
@@ -518,6 +561,7 @@ public class Parser {
                 case WHILE:
                 case PRINT:
                 case RETURN:
+                case IMPORT:
                     return;
             }
 
@@ -0,0 +1,175 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The instrumenting profiler behind --profile. Every call of a Lox function, method, class or native
+// enters and exits a node of a call tree, one node per distinct call path, which counts the calls and adds up
+// the time spent in them. On exit the tree is summed up per function into a report sorted by self time,
+// or written as collapsed stacks ("main;loop;fib 1234") for a flame graph.
+// Lox.main sets the lox.profile property before anything calls, so ENABLED is a constant from then on
+// and with --profile off the checks in the call paths compile away. Lox runs on one thread, and so does this.
+class Profiler {
+    static final boolean ENABLED = Boolean.getBoolean("lox.profile");
+    // the file --profile=FILE writes the collapsed stacks to, null for the report on stderr
+    static String output = null;
+
+    // a node of the call tree: the calls of one function made along one call path
+    private static class Node {
+        final Object function;
+        final Node caller;
+        final Map<Object, Node> callees = new LinkedHashMap<>();
+        long calls = 0;
+        long nanos = 0;
+        // when the call in progress started, a node is active at most once: a recursive call is a callee
+        long start;
+
+        Node(Object function, Node caller) {
+            this.function = function;
+            this.caller = caller;
+        }
+    }
+
+    // what the report shows of one function, summed up over the call tree
+    private static class Entry {
+        final String label;
+        long calls = 0;
+        long selfNanos = 0;
+        // only the outermost call of a recursion counts here, the time of the calls inside it is already included
+        long totalNanos = 0;
+
+        Entry(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Node root = new Node(null, null);
+    private static Node current = root;
+    // the class a method is declared in, registered when the class is created
+    private static final Map<Stmt.Function, String> owners = new IdentityHashMap<>();
+
+    // 'function' is what is called: a function declaration, a LoxClass or a native
+    static void enter(Object function) {
+        Node node = current.callees.get(function);
+        if (node == null) {
+            node = new Node(function, current);
+            current.callees.put(function, node);
+        }
+        node.calls++;
+        current = node;
+        node.start = System.nanoTime();
+    }
+
+    static void exit() {
+        current.nanos += System.nanoTime() - current.start;
+        current = current.caller;
+    }
+
+    // a runtime error unwinds the Lox calls without exiting them, the top level ends them where it catches it
+    static void unwind() {
+        while (current != root) exit();
+    }
+
+    static void methods(String className, Map<Symbol, LoxFunction> methods) {
+        for (LoxFunction method : methods.values()) {
+            owners.put(method.declaration(), className);
+        }
+    }
+
+    // the report on stderr, or the collapsed stacks in the --profile file
+    static void finish() {
+        unwind();
+        if (output == null) {
+            report(System.err);
+            return;
+        }
+
+        List<String> lines = new ArrayList<>();
+        for (Node node : root.callees.values()) {
+            collapse(node, "", lines);
+        }
+        try {
+            Files.write(Paths.get(output), lines);
+        } catch (IOException error) {
+            System.err.println("Could not write the profile to " + output + ": " + error.getMessage());
+        }
+    }
+
+    private static void report(PrintStream out) {
+        Map<String, Entry> entries = new HashMap<>();
+        long total = 0;
+        for (Node node : root.callees.values()) {
+            summarize(node, entries, new HashMap<>());
+            total += node.nanos;
+        }
+
+        List<Entry> sorted = new ArrayList<>(entries.values());
+        sorted.sort((a, b) -> Long.compare(b.selfNanos, a.selfNanos));
+        out.printf("%10s %10s %7s %10s %7s  %s%n", "calls", "self ms", "self %", "total ms", "total %", "function");
+        for (Entry entry : sorted) {
+            out.printf("%10d %10.2f %6.1f%% %10.2f %6.1f%%  %s%n", entry.calls,
+                entry.selfNanos / 1e6, percent(entry.selfNanos, total),
+                entry.totalNanos / 1e6, percent(entry.totalNanos, total), entry.label);
+        }
+    }
+
+    private static double percent(long nanos, long total) {
+        return total == 0 ? 0 : nanos * 100.0 / total;
+    }
+
+    // 'active' counts the calls of each function on the path to 'node'
+    private static void summarize(Node node, Map<String, Entry> entries, Map<String, Integer> active) {
+        String label = label(node.function);
+        Entry entry = entries.computeIfAbsent(label, Entry::new);
+        entry.calls += node.calls;
+        entry.selfNanos += selfNanos(node);
+        if (active.getOrDefault(label, 0) == 0) entry.totalNanos += node.nanos;
+
+        active.merge(label, 1, Integer::sum);
+        for (Node callee : node.callees.values()) {
+            summarize(callee, entries, active);
+        }
+        active.merge(label, -1, Integer::sum);
+    }
+
+    // one line per call path, its frames separated by ';' and followed by the self time in microseconds
+    private static void collapse(Node node, String path, List<String> lines) {
+        String stack = path.isEmpty() ? label(node.function) : path + ";" + label(node.function);
+        long micros = selfNanos(node) / 1000;
+        if (micros > 0) lines.add(stack + " " + micros);
+        for (Node callee : node.callees.values()) {
+            collapse(callee, stack, lines);
+        }
+    }
+
+    private static long selfNanos(Node node) {
+        long self = node.nanos;
+        for (Node callee : node.callees.values()) {
+            self -= callee.nanos;
+        }
+        return self;
+    }
+
+    // functions and methods by their declaration: "fib (line 1)", "Point.init (line 4)"; classes "new Point (line 3)"
+    private static String label(Object function) {
+        if (function instanceof Stmt.Function) {
+            Stmt.Function declaration = (Stmt.Function)function;
+            String owner = owners.get(declaration);
+            String name = owner != null ? owner + "." + declaration.name.lexeme : declaration.name.lexeme;
+            return name + " (line " + declaration.name.line + ")";
+        }
+        if (function instanceof LoxClass) {
+            LoxClass klass = (LoxClass)function;
+            return "new " + klass.name + " (line " + klass.line + ")";
+        }
+        return ((NativeFunction)function).name + " (native)";
+    }
+}
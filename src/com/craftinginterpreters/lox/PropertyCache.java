@@ -0,0 +1,101 @@
+package com.craftinginterpreters.lox;
+
+// Inline cache for one property access site (an Expr.Get or Expr.Set in the source).
+// It remembers what the lookup resolved to for up to MAX_ENTRIES receiver shapes: monomorphic with one entry,
+// polymorphic up to the limit. A hit is a shape identity check and an array access; a site that sees
+// more shapes than that is megamorphic and does the full lookup every time, without touching the cache.
+class PropertyCache {
+    static final int MAX_ENTRIES = 4;
+
+    private final Shape[] shapes = new Shape[MAX_ENTRIES];
+    // field index, or -1 when a get finds a method instead
+    private final int[] indexes = new int[MAX_ENTRIES];
+    // a get: the method found on the class; a set: the shape after adding the field, or null if the field exists
+    private final Object[] targets = new Object[MAX_ENTRIES];
+    private int count = 0;
+
+    Object get(LoxInstance instance, Token name) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                int index = indexes[i];
+                if (index >= 0) return instance.values[index];
+                return ((LoxFunction)targets[i]).bind(instance);
+            }
+        }
+
+        // miss: fields shadow methods, same as LoxInstance.get()
+        int index = shape.indexOf(name.symbol);
+        if (index >= 0) {
+            remember(shape, index, null);
+            return instance.values[index];
+        }
+
+        // the shape belongs to one class and a class's methods never change, so the method can be cached too
+        LoxFunction method = shape.klass.findMethod(name.symbol);
+        if (method == null) {
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+        remember(shape, -1, method);
+        return method.bind(instance);
+    }
+
+    // for obj.name(args): the method to invoke on the instance directly,
+    // or null when the property is a field, whose value get() then returns
+    LoxFunction method(LoxInstance instance, Token name) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                return indexes[i] < 0 ? (LoxFunction)targets[i] : null;
+            }
+        }
+
+        int index = shape.indexOf(name.symbol);
+        if (index >= 0) {
+            remember(shape, index, null);
+            return null;
+        }
+
+        LoxFunction method = shape.klass.findMethod(name.symbol);
+        if (method == null) {
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+        remember(shape, -1, method);
+        return method;
+    }
+
+    void set(LoxInstance instance, Token name, Object value) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                if (targets[i] != null) {
+                    instance.addField((Shape)targets[i], value);
+                } else {
+                    instance.values[indexes[i]] = value;
+                }
+                return;
+            }
+        }
+
+        int index = shape.indexOf(name.symbol);
+        if (index >= 0) {
+            remember(shape, index, null);
+            instance.values[index] = value;
+            return;
+        }
+
+        Shape next = shape.with(name.symbol);
+        remember(shape, shape.size, next);
+        instance.addField(next, value);
+    }
+
+    private void remember(Shape shape, int index, Object target) {
+        // megamorphic
+        if (count == MAX_ENTRIES) return;
+
+        shapes[count] = shape;
+        indexes[count] = index;
+        targets[count] = target;
+        count++;
+    }
+}
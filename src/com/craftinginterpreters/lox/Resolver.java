@@ -1,6 +1,7 @@
 package com.craftinginterpreters.lox;
 
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,8 +10,9 @@ import java.util.Stack;
 
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
+    // the locals of every scope without declarations; nothing is ever declared in it
+    private static final Map<Symbol, Local> ELIDED = Collections.emptyMap();
     private ClassType currentClass = ClassType.NONE;
     private FunctionType currentFunction = FunctionType.NONE;
     
@@ -29,23 +31,55 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         METHOD
     }
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    // A local variable in a scope: the slot it occupies in the runtime frame
+    // and whether its initializer has been resolved yet.
+    private static class Local {
+        final int slot;
+        boolean defined = false;
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    // A scope being resolved. A closure keeps the environment it was declared in, and reaches the ones around it
+    // through that, so a scope is captured when a function declared in it, or in a scope inside it, reads or assigns
+    // a local of this scope or of one around it. Every other scope's environment is done with when the scope
+    // completes, and the engines take it from the FrameStack instead of allocating it.
+    private static class Scope {
+        final Map<Symbol, Local> locals;
+        // the scope of a function's parameters, the boundary a reference from inside a closure crosses
+        final boolean function;
+        boolean captured = false;
+
+        Scope(Map<Symbol, Local> locals, boolean function) {
+            this.locals = locals;
+            this.function = function;
+        }
+    }
+
+    // whether this resolution reported an error, Lox.hadError covers everything else running at the same time
+    boolean hadError = false;
+
+    Resolver() {
     }
 
     //! Effective Stmts
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
+        beginScope(declaresAnything(stmt.statements), false);
         resolve(stmt.statements);
-        endScope();
+        // the block's environment needs one slot per declaration in it, with none it has no environment
+        Scope scope = endScope();
+        stmt.frameSize = scope.locals.size();
+        stmt.captured = scope.captured;
         return null;
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
@@ -55,20 +89,28 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     private void resolveFunction(Stmt.Function function, FunctionType type){
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
-        beginScope();
+        // a function without parameters or declarations runs in its closure's environment
+        beginScope(type != FunctionType.FUNCTION || !function.params.isEmpty() || declaresAnything(function.body), true);
+        // a method's receiver takes slot 0 of its own frame, so calling it needs no extra environment for 'this'
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            defineImplicit(Symbol.THIS);
+        }
         for (Token param : function.params) {
             declare(param);
             define(param);
         }
 
         resolve(function.body);
-        endScope();
+        // parameters and the body's declarations share one environment
+        Scope scope = endScope();
+        function.frameSize = scope.locals.size();
+        function.captured = scope.captured;
         currentFunction = enclosingFunction;
     }
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         // before the initialization, the var isn't readily initialiezd; 
         // so we just declare it, and if the initializer use itself(undefined), it will raise error
         if (stmt.initializer != null) {
@@ -88,11 +130,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         currentClass = ClassType.CLASS;
 
         // declare and define the name of the class for forward reference inside the class body
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
 
-        if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-            Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+        if (stmt.superclass != null && stmt.name.symbol == stmt.superclass.name.symbol) {
+            error(stmt.superclass.name, "A class can't inherit from itself.");
         }
 
         // only when superclass exists do the resovler resolve the superclass
@@ -103,35 +145,24 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
         // If the class declaration has a superclass, then we create a new scope surrounding all of its methods.
         if (stmt.superclass != null) {
-            beginScope();
-            scopes.peek().put("super", true);
+            beginScope(true, false);
+            defineImplicit(Symbol.SUPER);
         }
 
 
 
-        // Before we step in and start resolving the method bodies, we push a new scope 
-        // and define “this” in it as if it were a variable.
-        beginScope();
-        scopes.peek().put("this", true);
-
         // resolve each method of the class
+        // “this” is defined as if it were a variable, in slot 0 of each method's scope (see resolveFunction)
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
-            if (method.name.lexeme.equals("init")) {
+            if (method.name.symbol == Symbol.INIT) {
                 declaration = FunctionType.INITIALIZER;
             }
             resolveFunction(method, declaration);
         }
 
-        // Then, when we’re done, we discard that surrounding scope.
-        endScope();
-
-        // Now, whenever a this expression is encountered (at least inside a method) 
-        // it will resolve to a “local variable” defined in 
-        // an implicit scope just outside of the block for the method body. (resolveFunction creates a new scope)
-
-        // The resolver has a new scope for this , 
-        // so the interpreter needs to create a corresponding environment for it.
+        // Now, whenever a this expression is encountered (at least inside a method)
+        // it will resolve to a “local variable” in the method's own environment, which the call fills in.
 
         // Once we’re done resolving the class(has superclass)’s methods, we discard that scope.
         if (stmt.superclass != null) endScope();
@@ -147,6 +178,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        // the ModuleLoader only links the imports of a module's top-level code
+        if (!scopes.isEmpty()) {
+            error(stmt.keyword, "Can only import at the top level.");
+        }
+        return null;
+    }
+
     @Override
     public Void visitIfStmt(Stmt.If stmt){
         // In resolution, there is no control-flow
@@ -167,14 +207,18 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     public Void visitReturnStmt(Stmt.Return stmt) {
         // In resolution, we can also help to check whether a returnStmt is inside a function/method body
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            error(stmt.keyword, "Can't return from top-level code.");
         }
 
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+                error(stmt.keyword, "Can't return a value from an initializer.");
             }
             resolve(stmt.value);
+
+            // 'return f(...);' has nothing left to do after the call,
+            // so the engines run it from the caller's trampoline instead of nesting it
+            stmt.tailCall = stmt.value instanceof Expr.Call;
         }
         return null;
     }
@@ -191,17 +235,38 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     
 
     
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // a 'var' initializer lives in a scope of its own, shared by every iteration,
+        // the way it did when 'for' was a block around a while loop
+        boolean scoped = stmt.initializer instanceof Stmt.Var;
+        if (scoped) beginScope(true, false);
+
+        if (stmt.initializer != null) resolve(stmt.initializer);
+        if (stmt.condition != null) resolve(stmt.condition);
+        resolve(stmt.body);
+        if (stmt.increment != null) resolve(stmt.increment);
+
+        if (scoped) {
+            Scope scope = endScope();
+            stmt.frameSize = scope.locals.size();
+            stmt.captured = scope.captured;
+        }
+        return null;
+    }
+
     //! Effective Exprs
 
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+            error(expr.keyword, "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+            error(expr.keyword, "Can't use 'super' in a class with no superclass.");
         }
 
-        resolveLocal(expr, expr.keyword);
+        // 'super' always lives in slot 0 of its own scope
+        expr.depth = resolveLocal(expr.keyword);
         return null;
     }
     
@@ -209,11 +274,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     public Void visitThisExpr(Expr.This expr) {
         // "this" can only occur in methods
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class");
+            error(expr.keyword, "Can't use 'this' outside of a class");
             return null;
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
+        expr.slot = slotOf(expr.keyword, expr.depth);
         return null;
     }
 
@@ -222,12 +288,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         // this case can only happen when a local variable is initialized with the (undefined) itself
         // because before the varStmt resolve its initializer, the variable is just decalred rather than defined
         if(!scopes.isEmpty() &&
-            scopes.peek().get(expr.name.lexeme) == Boolean.FALSE){
-                Lox.error(expr.name, "Can't read local variable in its own initializer.");
+            scopes.peek().locals.containsKey(expr.name.symbol) &&
+            !scopes.peek().locals.get(expr.name.symbol).defined){
+                error(expr.name, "Can't read local variable in its own initializer.");
             }
         
         // when we do visit a variable, we need to resolve it locally to match it to the correspoding environment. 
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        expr.slot = slotOf(expr.name, expr.depth);
         return null;
     }
 
@@ -236,7 +304,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         resolve(expr.value);
         // the lhs of a AssignExpr can only be Token => variable
         // when we do visit a lhs variable, we need to resolve it locally to match it to the correspoding environment. 
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        expr.slot = slotOf(expr.name, expr.depth);
         return null;
     }
 
@@ -306,19 +375,50 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     
     // Helper Functions
 
-    // expr is used to identify which syntax tree node has part to be resolved
     // name is used to find the corresponding environment
-    private void resolveLocal(Expr expr, Token name){
+    // returns how many environments to hop from the innermost one, or -1 for a global variable;
+    // elided scopes have no environment at runtime, so they don't count
+    private int resolveLocal(Token name){
+        int depth = 0;
+        // the innermost scope outside the function the reference is in, -1 until one is passed
+        int closure = -1;
         for (int i = scopes.size() - 1; i >= 0; i --) {
             // from the innermost scope and work outwards
-            if(scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            Scope scope = scopes.get(i);
+            if(scope.locals.containsKey(name.symbol)) {
+                // the closure reaches this scope through every one from its own declaration outwards
+                for (int j = i; j <= closure; j++) {
+                    scopes.get(j).captured = true;
+                }
+                return depth;
             }
-            // if no-match, we don't use intepreter.resolve to add resolution information for the global variable
+            if(scope.locals != ELIDED) depth++;
+            if(scope.function && closure < 0) closure = i - 1;
+            // if no-match, the variable is left unresolved and looked up in the globals by name
+        }
+        return -1;
+    }
+
+    // the slot of a resolved variable in the innermost scope that declares it
+    private int slotOf(Token name, int depth){
+        if (depth < 0) return -1;
+        for (int i = scopes.size() - 1; ; i --) {
+            Local local = scopes.get(i).locals.get(name.symbol);
+            if (local != null) return local.slot;
         }
     }
 
+    // whether a block or function body declares anything in its own scope: only its direct statements can,
+    // an if or while body is a single statement and a nested block has a scope of its own
+    private static boolean declaresAnything(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var || statement instanceof Stmt.Function || statement instanceof Stmt.Class) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     // start point of the whole program
     void resolve(List<Stmt> statements){
         for(Stmt statement : statements){
@@ -326,25 +426,42 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         }
     }
 
-    private void declare(Token name) {
+    // returns the slot the declaration occupies in the current scope, or -1 for a global
+    private int declare(Token name) {
         // global scope doesn't need to resolve
-        if(scopes.isEmpty()) return;
+        if(scopes.isEmpty()) return -1;
 
-        Map<String, Boolean> scope = scopes.peek();
+        Map<Symbol, Local> scope = scopes.peek().locals;
         // local scope doesn't allow multiple varDecl
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name,
+        if (scope.containsKey(name.symbol)) {
+            error(name,
                 "Already variable with this name inthis scope.");
+            return scope.get(name.symbol).slot;
         }
-        // bind the name to false to mark it as not initialiezd
-        scope.put(name.lexeme, false); 
+        // a new local takes the next free slot, and is marked as not initialiezd
+        Local local = new Local(scope.size());
+        scope.put(name.symbol, local);
+        return local.slot;
     }
 
     private void define(Token name) {
         if(scopes.isEmpty()) return;
 
-        // bind the name to true to mark it as fully initialized
-        scopes.peek().put(name.lexeme, true);
+        // mark it as fully initialized
+        scopes.peek().locals.get(name.symbol).defined = true;
+    }
+
+    // 'this' and 'super' are declared implicitly: 'super' in a scope of its own, 'this' first in a method's scope
+    private void defineImplicit(Symbol name) {
+        Map<Symbol, Local> scope = scopes.peek().locals;
+        Local local = new Local(scope.size());
+        local.defined = true;
+        scope.put(name, local);
+    }
+
+    private void error(Token token, String message) {
+        hadError = true;
+        Lox.error(token, message);
     }
 
     private void resolve(Stmt stmt){
@@ -354,11 +471,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         expr.accept(this);
     }
 
-    private void beginScope(){
-        scopes.push(new HashMap<String, Boolean>());
+    // a scope that will never declare anything is elided: it gets no environment at runtime
+    private void beginScope(boolean declares, boolean function){
+        scopes.push(new Scope(declares ? new HashMap<Symbol, Local>() : ELIDED, function));
     }
 
-    private void endScope(){
-        scopes.pop();
+    // the number of its locals is the number of slots the scope's environment needs
+    private Scope endScope(){
+        return scopes.pop();
     }
 }
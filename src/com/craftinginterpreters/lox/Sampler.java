@@ -0,0 +1,94 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The sampling profiler behind --sample: a daemon thread looks at the CallStack the Interpreter publishes
+// every few milliseconds and counts how often it sees each stack of (function, line) frames. The histogram is
+// written as collapsed stacks, most frequent first, ready for a flame graph: when the program ends and, for long
+// runs, every --sample-dump seconds.
+// Unlike --profile nothing is timed on the Lox thread, it only stores the line of each statement and pushes and
+// pops its calls, so the JIT stays on; its compiled functions show up at the line that called them.
+// ENABLED is set up like Profiler.ENABLED, from a property Lox.main sets before anything runs.
+class Sampler {
+    static final boolean ENABLED = Boolean.getBoolean("lox.sample");
+
+    private final CallStack calls;
+    private final long intervalMillis;
+    private final long dumpMillis;
+    // where the dumps go, null for stderr
+    private final Path output;
+    private final Map<String, Long> histogram = new HashMap<>();
+    private long samples = 0;
+
+    private Sampler(CallStack calls, long intervalMillis, long dumpMillis, Path output) {
+        this.calls = calls;
+        this.intervalMillis = intervalMillis;
+        this.dumpMillis = dumpMillis;
+        this.output = output;
+    }
+
+    // samples 'calls' every 'intervalMillis' and dumps every 'dumpMillis', never if that is 0
+    static Sampler start(CallStack calls, long intervalMillis, long dumpMillis, String output) {
+        Sampler sampler = new Sampler(calls, intervalMillis, dumpMillis, output == null ? null : Paths.get(output));
+        Thread thread = new Thread(sampler::run, "lox-sampler");
+        thread.setDaemon(true);
+        thread.start();
+        return sampler;
+    }
+
+    private void run() {
+        long nextDump = System.currentTimeMillis() + dumpMillis;
+        try {
+            for (;;) {
+                Thread.sleep(intervalMillis);
+                String stack = calls.sample();
+                if (stack != null) {
+                    synchronized (this) {
+                        histogram.merge(stack, 1L, Long::sum);
+                        samples++;
+                    }
+                }
+                if (dumpMillis > 0 && System.currentTimeMillis() >= nextDump) {
+                    dump();
+                    nextDump += dumpMillis;
+                }
+            }
+        } catch (InterruptedException error) {
+            // the JVM is going away
+        }
+    }
+
+    // writes what has been counted so far; the histogram keeps growing, every dump covers the whole run
+    synchronized void dump() {
+        List<Map.Entry<String, Long>> stacks = new ArrayList<>(histogram.entrySet());
+        stacks.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        List<String> lines = new ArrayList<>(stacks.size());
+        for (Map.Entry<String, Long> entry : stacks) {
+            lines.add(entry.getKey() + " " + entry.getValue());
+        }
+
+        if (output == null) {
+            PrintStream err = System.err;
+            err.println("--- " + samples + " samples, every " + intervalMillis + " ms ---");
+            lines.forEach(err::println);
+            return;
+        }
+        try {
+            // a reader of the file never sees half a dump
+            Path temporary = output.resolveSibling(output.getFileName() + ".tmp");
+            Files.write(temporary, lines);
+            Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException error) {
+            System.err.println("Could not write the samples to " + output + ": " + error.getMessage());
+        }
+    }
+}
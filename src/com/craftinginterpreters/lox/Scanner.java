@@ -1,214 +1,290 @@
 package com.craftinginterpreters.lox;
 
 import static com.craftinginterpreters.lox.TokenType.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 
 
+// Scans lazily: every fill() reads just enough characters for one window of tokens, so the Parser can consume
+// a file while it is being read and the whole source never has to sit in memory at once.
 public class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
-    private int start = 0;
-    private int current = 0;
+    // characters are pulled from the reader in chunks of this size
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    // the imported module being scanned, null for the main script
+    final String file;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    // the unread characters are buffer[position..limit)
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfInput = false;
+    // text of the token being scanned, since the characters before 'position' may already be gone;
+    // the TokenBuffer copies it only for numbers and strings
+    private final StringBuilder lexeme = new StringBuilder();
     private int line = 1;
-    private static final Map<String, TokenType> keywords;
-
-    static{
-        keywords = new HashMap<>();
-        keywords.put("and", AND);
-        keywords.put("class", CLASS);
-        keywords.put("else", ELSE);
-        keywords.put("false", FALSE);
-        keywords.put("for", FOR);
-        keywords.put("fun", FUN);
-        keywords.put("if", IF);
-        keywords.put("nil", NIL);
-        keywords.put("or", OR);
-        keywords.put("print", PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super", SUPER);
-        keywords.put("this", THIS);
-        keywords.put("true", TRUE);
-        keywords.put("var", VAR);
-        keywords.put("while", WHILE);
-    }
+    // the interned name of the last identifier scanned
+    private Symbol identifier;
+    // whether this scan reported an error, Lox.hadError covers everything else running at the same time
+    boolean hadError = false;
 
     Scanner(String source){
-        this.source = source;
+        this(new StringReader(source));
     }
 
-    List<Token> scanTokens(){
-        while(!isAtEnd()){
-            start = current;
-            scanToken();
+    Scanner(Reader reader){
+        this(reader, null);
+    }
+
+    // 'file' names an imported module in error messages
+    Scanner(Reader reader, String file){
+        this.reader = reader;
+        this.file = file;
+    }
+
+    // scans tokens into the buffer until it is full or the input ends with EOF
+    void fill(TokenBuffer tokens){
+        while(!tokens.isFull()){
+            if(isAtEnd()){
+                lexeme.setLength(0);
+                tokens.add(EOF, line, lexeme);
+                return;
+            }
+
+            lexeme.setLength(0);
+            TokenType type = scanToken();
+            if(type == IDENTIFIER){
+                tokens.addIdentifier(identifier, line);
+            } else if(type != null){
+                tokens.add(type, line, lexeme);
+            }
         }
-        
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
     }
-    
+
     private boolean isAtEnd(){
-        return current >= source.length();
+        return !ensure(1);
     }
 
-    private void scanToken(){
+    // makes sure at least 'count' unread characters are buffered, false if the input ends first
+    private boolean ensure(int count){
+        if(limit - position >= count) return true;
+        if(endOfInput) return false;
+
+        // keep the unread tail and read the next chunk in behind it
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+        try {
+            while(limit < count){
+                int read = reader.read(buffer, limit, buffer.length - limit);
+                if(read < 0){
+                    endOfInput = true;
+                    break;
+                }
+                limit += read;
+            }
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+        return limit - position >= count;
+    }
+
+    // scans one lexeme, null when it doesn't produce a token (whitespace, comments, errors)
+    private TokenType scanToken(){
         char c = advance();
         switch(c){
             // single-character
-            case '(': addToken(LEFT_PAREN); break;
-            case ')': addToken(RIGHT_PAREN); break;
-            case '{': addToken(LEFT_BRACE); break;
-            case '}': addToken(RIGHT_BRACE); break;
-            case ',': addToken(COMMA); break;
-            case '.': addToken(DOT); break;
-            case ';': addToken(SEMICOLON); break;
-            case '+': addToken(PLUS); break;
-            case '-': addToken(MINUS); break;
-            case '*': addToken(STAR); break;
+            case '(': return LEFT_PAREN;
+            case ')': return RIGHT_PAREN;
+            case '{': return LEFT_BRACE;
+            case '}': return RIGHT_BRACE;
+            case ',': return COMMA;
+            case '.': return DOT;
+            case ';': return SEMICOLON;
+            case '+': return PLUS;
+            case '-': return MINUS;
+            case '*': return STAR;
             //! '/' needs special handling
-            // case '/': addToken(SLASH); break;
+            // case '/': return SLASH;
             //  one or two character
             case '!':
-                addToken(match('=') ? BANG_EQUAL : BANG);
-                break;
-            case '=': 
-                addToken(match('=') ? EQUAL_EQUAL : EQUAL);
-                break;
-            case '<': 
-                addToken(match('=') ? LESS_EQUAL : LESS);
-                break;
-            case '>': 
-                addToken(match('=') ? GREATER_EQUAL : GREATER);
-                break;
+                return match('=') ? BANG_EQUAL : BANG;
+            case '=':
+                return match('=') ? EQUAL_EQUAL : EQUAL;
+            case '<':
+                return match('=') ? LESS_EQUAL : LESS;
+            case '>':
+                return match('=') ? GREATER_EQUAL : GREATER;
             // special handling for SLASH
-            case '/': 
+            case '/':
                 if(match('/')){
                     // a comment goes until the end of the line
                     while(peek() != '\n' && !isAtEnd()){
                         advance();
                     }
-                } else{
-                    addToken(SLASH);
+                    return null;
                 }
+                return SLASH;
             // other meaningless characters
             case ' ':
             case '\r':
             case '\t':
                 // Ignore whitespace
-                break;
+                return null;
             case '\n':
                 line++;
-                break;
-            
+                return null;
+
             // String literals
-            case '"': string(); break;
+            case '"': return string();
             default:
             // Number literals
             if(isDigit(c)){
-                number();
+                return number();
             } else if(isAlpha(c)){
-                identifier();
+                return identifier();
             }else{
-                Lox.error(line, "Unexpected character.");
+                error("Unexpected character.");
+                return null;
             }
-            
-
-           
-            
         }
 
     }
 
     private char advance(){
-        current++;
-        return source.charAt(current - 1);
+        ensure(1);
+        char c = buffer[position++];
+        lexeme.append(c);
+        return c;
     }
     private char peek(){
         if(isAtEnd()) return '\0';
-        return source.charAt(current);
+        return buffer[position];
     }
     private boolean match(char expected){
         if (isAtEnd()) return false;
-        if (source.charAt(current) != expected) return false;
+        if (buffer[position] != expected) return false;
 
-        current++;
+        advance();
         return true;
     }
 
-    private void string(){
+    private TokenType string(){
         while(peek() != '"' && !isAtEnd()){
             if(peek() == '\n') line++;
             advance();
         }
 
         if(isAtEnd()){
-            Lox.error(line, "Unterminated string.");
-            return;
+            error("Unterminated string.");
+            return null;
         }
 
         // the closing ".
         advance();
-        // Trim the surrouding quotes.
-        String value = source.substring(start + 1, current - 1);
-        addToken(STRING, value);
+        // the value without the quotes is taken from the lexeme when the Parser asks for the Token
+        return STRING;
     }
     private boolean isDigit(char c){
         return c >= '0' && c <= '9';
     }
-    private void number(){
+    private TokenType number(){
         while(isDigit(peek())){
             advance();
         }
-        
+
         // Look for fractional part
         if(peek() == '.' && isDigit(peekNext())){
-           // consume the '.' 
+           // consume the '.'
            advance();
 
            while(isDigit(peek())) advance();
         }
-       
-        
+
+
         // correct number : 123.456
-        addToken(NUMBER, Double.valueOf(source.substring(start, current)));
-    
+        return NUMBER;
+
 }
     private boolean isAlpha(char c){
         return (c >= 'a' && c <= 'z') ||
                 (c >= 'A' && c <= 'Z') ||
-                (c == '_'); 
+                (c == '_');
     }
     private boolean isAlphaNumeric(char c){
         return isAlpha(c) || isDigit(c);
     }
-    private void identifier(){
+    private TokenType identifier(){
         while(isAlphaNumeric(peek())) advance();
-        
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if(type == null) type = IDENTIFIER;
-        addToken(type);
+
+        TokenType type = keywordType(lexeme);
+        if(type != null) return type;
+        // only genuine identifiers are interned, reusing the Symbol of a name seen before
+        identifier = Symbol.intern(lexeme);
+        return IDENTIFIER;
 
     }
-    private char peekNext(){
-        if(current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+    private void error(String message){
+        hadError = true;
+        Lox.error(file, line, message);
     }
 
-    // intermediate addToken for Token without literal
-    private void addToken(TokenType type){
-        addToken(type, null);
+    // recognizes the keywords on the lexeme's characters: a switch on the first character picks the only
+    // keyword(s) it could be, then the length and the remaining characters are checked
+    static TokenType keywordType(CharSequence lexeme){
+        switch(lexeme.charAt(0)){
+            case 'a': return keyword(lexeme, 1, "nd", AND);
+            case 'c': return keyword(lexeme, 1, "lass", CLASS);
+            case 'e': return keyword(lexeme, 1, "lse", ELSE);
+            case 'f':
+                if(lexeme.length() > 1){
+                    switch(lexeme.charAt(1)){
+                        case 'a': return keyword(lexeme, 2, "lse", FALSE);
+                        case 'o': return keyword(lexeme, 2, "r", FOR);
+                        case 'u': return keyword(lexeme, 2, "n", FUN);
+                    }
+                }
+                return null;
+            case 'i':
+                if(lexeme.length() > 1){
+                    switch(lexeme.charAt(1)){
+                        case 'f': return keyword(lexeme, 2, "", IF);
+                        case 'm': return keyword(lexeme, 2, "port", IMPORT);
+                    }
+                }
+                return null;
+            case 'n': return keyword(lexeme, 1, "il", NIL);
+            case 'o': return keyword(lexeme, 1, "r", OR);
+            case 'p': return keyword(lexeme, 1, "rint", PRINT);
+            case 'r': return keyword(lexeme, 1, "eturn", RETURN);
+            case 's': return keyword(lexeme, 1, "uper", SUPER);
+            case 't':
+                if(lexeme.length() > 1){
+                    switch(lexeme.charAt(1)){
+                        case 'h': return keyword(lexeme, 2, "is", THIS);
+                        case 'r': return keyword(lexeme, 2, "ue", TRUE);
+                    }
+                }
+                return null;
+            case 'v': return keyword(lexeme, 1, "ar", VAR);
+            case 'w': return keyword(lexeme, 1, "hile", WHILE);
+        }
+        return null;
     }
 
-    // addToken with 2 cases:
-    // 1. Token with literal
-    // 2. Token without literal (using previous addToken as intermediate)
-    // add extra information : 1. lexeme(text) 2.line
-    private void addToken(TokenType type, Object literal){
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    // the keyword if the lexeme continues with exactly 'rest' from 'start' on
+    private static TokenType keyword(CharSequence lexeme, int start, String rest, TokenType type){
+        if(lexeme.length() != start + rest.length()) return null;
+        for(int i = 0; i < rest.length(); i++){
+            if(lexeme.charAt(start + i) != rest.charAt(i)) return null;
+        }
+        return type;
+    }
 
+    private char peekNext(){
+        if(!ensure(2)) return '\0';
+        return buffer[position + 1];
     }
 }
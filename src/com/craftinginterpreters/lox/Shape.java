@@ -0,0 +1,45 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// The layout of an instance's fields: which index of LoxInstance.values holds each field name.
+// Every class has a root shape with no fields. Adding a field moves an instance along a transition
+// to the next shape, so instances that get the same fields in the same order share one Shape,
+// and a PropertyCache can compare shapes by identity instead of hashing the property name.
+class Shape {
+    final LoxClass klass;
+    final int size;
+    private final Map<Symbol, Integer> indexes;
+    private final Map<Symbol, Shape> transitions = new HashMap<>();
+
+    // root shape of a class
+    Shape(LoxClass klass) {
+        this.klass = klass;
+        this.size = 0;
+        this.indexes = new HashMap<>();
+    }
+
+    private Shape(Shape parent, Symbol name) {
+        this.klass = parent.klass;
+        this.size = parent.size + 1;
+        this.indexes = new HashMap<>(parent.indexes);
+        this.indexes.put(name, parent.size);
+    }
+
+    // index of the field in LoxInstance.values, or -1 if instances of this shape don't have it
+    int indexOf(Symbol name) {
+        Integer index = indexes.get(name);
+        return index == null ? -1 : index;
+    }
+
+    // the shape after adding the field, the new field gets index 'size'
+    Shape with(Symbol name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            next = new Shape(this, name);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
@@ -4,6 +4,9 @@ import java.util.List;
 
 abstract class Stmt{
 
+    int line = 0;
+    int id = -1;
+
     abstract <R> R accept(Visitor<R> visitor);
 
     interface Visitor<R>{
@@ -12,10 +15,12 @@ abstract class Stmt{
         R visitFunctionStmt(Function stmt);
         R visitBlockStmt(Block stmt);
         R visitExpressionStmt(Expression stmt);
+        R visitImportStmt(Import stmt);
         R visitIfStmt(If stmt);
         R visitPrintStmt(Print stmt);
         R visitVarStmt(Var stmt);
         R visitWhileStmt(While stmt);
+        R visitForStmt(For stmt);
     }
 
     static class Class extends Stmt{
@@ -29,6 +34,8 @@ abstract class Stmt{
         final Expr.Variable superclass;
         final List<Stmt.Function> methods;
 
+        int slot = -1;
+
         @Override
         <R> R accept(Visitor<R> visitor){
             return visitor.visitClassStmt(this);
@@ -44,6 +51,8 @@ abstract class Stmt{
         final Token keyword;
         final Expr value;
 
+        boolean tailCall = false;
+
         @Override
         <R> R accept(Visitor<R> visitor){
             return visitor.visitReturnStmt(this);
@@ -61,6 +70,12 @@ abstract class Stmt{
         final List<Token> params;
         final List<Stmt> body;
 
+        int slot = -1;
+        int frameSize = 0;
+        boolean captured = false;
+        int calls = 0;
+        JitCode jitCode = null;
+
         @Override
         <R> R accept(Visitor<R> visitor){
             return visitor.visitFunctionStmt(this);
@@ -74,6 +89,9 @@ abstract class Stmt{
 
         final List<Stmt> statements;
 
+        int frameSize = 0;
+        boolean captured = false;
+
         @Override
         <R> R accept(Visitor<R> visitor){
             return visitor.visitBlockStmt(this);
@@ -92,6 +110,21 @@ abstract class Stmt{
             return visitor.visitExpressionStmt(this);
         }
 
+    }
+    static class Import extends Stmt{
+        Import(Token keyword, Token path){
+            this.keyword = keyword;
+            this.path = path;
+        }
+
+        final Token keyword;
+        final Token path;
+
+        @Override
+        <R> R accept(Visitor<R> visitor){
+            return visitor.visitImportStmt(this);
+        }
+
     }
     static class If extends Stmt{
         If(Expr condition, Stmt thenBranch, Stmt elseBranch){
@@ -132,6 +165,8 @@ abstract class Stmt{
         final Token name;
         final Expr initializer;
 
+        int slot = -1;
+
         @Override
         <R> R accept(Visitor<R> visitor){
             return visitor.visitVarStmt(this);
@@ -153,4 +188,26 @@ abstract class Stmt{
         }
 
     }
+    static class For extends Stmt{
+        For(Stmt initializer, Expr condition, Expr increment, Stmt body){
+            this.initializer = initializer;
+            this.condition = condition;
+            this.increment = increment;
+            this.body = body;
+        }
+
+        final Stmt initializer;
+        final Expr condition;
+        final Expr increment;
+        final Stmt body;
+
+        int frameSize = 0;
+        boolean captured = false;
+
+        @Override
+        <R> R accept(Visitor<R> visitor){
+            return visitor.visitForStmt(this);
+        }
+
+    }
 }
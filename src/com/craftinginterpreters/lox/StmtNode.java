@@ -0,0 +1,369 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Executable statement nodes built once by the NodeCompiler.
+// Like the Interpreter's statements, execute() completes with Interpreter.NORMAL or the value of a 'return'.
+abstract class StmtNode {
+
+    abstract Object execute(Environment environment);
+
+    static class Expression extends StmtNode {
+        private final ExprNode expression;
+
+        Expression(ExprNode expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            expression.execute(environment);
+            return Interpreter.NORMAL;
+        }
+    }
+
+    static class Print extends StmtNode {
+        private final ExprNode expression;
+
+        Print(ExprNode expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            System.out.println(Interpreter.stringfy(expression.execute(environment)));
+            return Interpreter.NORMAL;
+        }
+    }
+
+    static class LocalVar extends StmtNode {
+        private final int slot;
+        private final ExprNode initializer;
+
+        LocalVar(int slot, ExprNode initializer) {
+            this.slot = slot;
+            this.initializer = initializer;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = initializer == null ? null : initializer.execute(environment);
+            environment.define(slot, value);
+            return Interpreter.NORMAL;
+        }
+    }
+
+    static class GlobalVar extends StmtNode {
+        private final Environment globals;
+        private final Symbol name;
+        private final ExprNode initializer;
+
+        GlobalVar(Environment globals, Symbol name, ExprNode initializer) {
+            this.globals = globals;
+            this.name = name;
+            this.initializer = initializer;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = initializer == null ? null : initializer.execute(environment);
+            globals.define(name, value);
+            return Interpreter.NORMAL;
+        }
+    }
+
+    // statements run in the current environment, e.g. a function body inside the call's environment
+    static class Sequence extends StmtNode {
+        private final StmtNode[] statements;
+
+        Sequence(StmtNode[] statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            for (StmtNode statement : statements) {
+                Object completion = statement.execute(environment);
+                if (completion != Interpreter.NORMAL) return completion;
+            }
+            return Interpreter.NORMAL;
+        }
+    }
+
+    static class Block extends StmtNode {
+        private final int frameSize;
+        private final Sequence body;
+
+        Block(int frameSize, Sequence body) {
+            this.frameSize = frameSize;
+            this.body = body;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            // the inner environment only lives as long as this call, so there is nothing to restore afterwards
+            return body.execute(new Environment(environment, frameSize));
+        }
+    }
+
+    // a block no closure captures: its environment comes from the frame stack and goes back when it completes
+    static class PooledBlock extends StmtNode {
+        private final FrameStack frames;
+        private final int frameSize;
+        private final Sequence body;
+
+        PooledBlock(FrameStack frames, int frameSize, Sequence body) {
+            this.frames = frames;
+            this.frameSize = frameSize;
+            this.body = body;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Environment frame = frames.push(environment, frameSize);
+            try {
+                return body.execute(frame);
+            } finally {
+                frames.pop(frame, frameSize);
+            }
+        }
+    }
+
+    static class If extends StmtNode {
+        private final ExprNode condition;
+        private final StmtNode thenBranch;
+        private final StmtNode elseBranch;
+
+        If(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) {
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            if (condition.executeCondition(environment)) {
+                return thenBranch.execute(environment);
+            } else if (elseBranch != null) {
+                return elseBranch.execute(environment);
+            }
+            return Interpreter.NORMAL;
+        }
+    }
+
+    static class While extends StmtNode {
+        private final ExprNode condition;
+        private final StmtNode body;
+
+        While(ExprNode condition, StmtNode body) {
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            while (condition.executeCondition(environment)) {
+                Object completion = body.execute(environment);
+                if (completion != Interpreter.NORMAL) return completion;
+            }
+            return Interpreter.NORMAL;
+        }
+    }
+
+    // the loop variable lives in one environment for the whole loop, body and increment run in it;
+    // a null condition loops forever, a null frame stack means a closure captures the loop variable
+    static class For extends StmtNode {
+        private final FrameStack frames;
+        private final int frameSize;
+        private final StmtNode initializer;
+        private final ExprNode condition;
+        private final ExprNode increment;
+        private final StmtNode body;
+
+        For(FrameStack frames, int frameSize, StmtNode initializer, ExprNode condition, ExprNode increment,
+            StmtNode body) {
+            this.frames = frames;
+            this.frameSize = frameSize;
+            this.initializer = initializer;
+            this.condition = condition;
+            this.increment = increment;
+            this.body = body;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            if (frameSize == 0) return run(environment);
+            if (frames == null) return run(new Environment(environment, frameSize));
+
+            Environment loop = frames.push(environment, frameSize);
+            try {
+                return run(loop);
+            } finally {
+                frames.pop(loop, frameSize);
+            }
+        }
+
+        private Object run(Environment loop) {
+            if (initializer != null) initializer.execute(loop);
+            while (condition == null || condition.executeCondition(loop)) {
+                Object completion = body.execute(loop);
+                if (completion != Interpreter.NORMAL) return completion;
+                if (increment != null) increment.execute(loop);
+            }
+            return Interpreter.NORMAL;
+        }
+    }
+
+    // a while loop whose condition is always true, left only through a return
+    static class Loop extends StmtNode {
+        private final StmtNode body;
+
+        Loop(StmtNode body) {
+            this.body = body;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            for (;;) {
+                Object completion = body.execute(environment);
+                if (completion != Interpreter.NORMAL) return completion;
+            }
+        }
+    }
+
+    static class Return extends StmtNode {
+        private final ExprNode value;
+
+        Return(ExprNode value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            // the default return value is nil
+            return value == null ? null : value.execute(environment);
+        }
+    }
+
+    // 'return f(args);', completes with a TailCall for LoxFunction's trampoline
+    static class TailReturn extends StmtNode {
+        private final ExprNode.CallSite call;
+
+        TailReturn(ExprNode.CallSite call) {
+            this.call = call;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return call.tailCall(environment);
+        }
+    }
+
+    static class Function extends StmtNode {
+        private final Environment globals;
+        private final Stmt.Function declaration;
+        private final Sequence body;
+
+        Function(Environment globals, Stmt.Function declaration, Sequence body) {
+            this.globals = globals;
+            this.declaration = declaration;
+            this.body = body;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            LoxFunction function = new LoxFunction(declaration, environment, false, body);
+            if (declaration.slot < 0) {
+                globals.define(declaration.name.symbol, function);
+            } else {
+                environment.define(declaration.slot, function);
+            }
+            return Interpreter.NORMAL;
+        }
+    }
+
+    static class Class extends StmtNode {
+        private final Environment globals;
+        private final Stmt.Class declaration;
+        private final ExprNode superclass;
+        private final Sequence[] methods;
+
+        Class(Environment globals, Stmt.Class declaration, ExprNode superclass, Sequence[] methods) {
+            this.globals = globals;
+            this.declaration = declaration;
+            this.superclass = superclass;
+            this.methods = methods;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object superValue = null;
+            if (superclass != null) {
+                superValue = superclass.execute(environment);
+                if (!(superValue instanceof LoxClass)) {
+                    throw new RuntimeError(declaration.superclass.name, "Superclass must be a class");
+                }
+            }
+
+            // the methods close over the environment holding 'super', when there is one
+            Environment closure = environment;
+            if (superclass != null) {
+                closure = new Environment(environment, 1);
+                closure.define(0, superValue);
+            }
+
+            Map<Symbol, LoxFunction> functions = new HashMap<>();
+            for (int i = 0; i < methods.length; i++) {
+                Stmt.Function method = declaration.methods.get(i);
+                LoxFunction function = new LoxFunction(method, closure,
+                    method.name.symbol == Symbol.INIT, methods[i]);
+                functions.put(method.name.symbol, function);
+            }
+
+            LoxClass klass = new LoxClass(declaration.name.lexeme, declaration.name.line, (LoxClass)superValue, functions);
+            if (declaration.slot < 0) {
+                globals.define(declaration.name.symbol, klass);
+            } else {
+                environment.define(declaration.slot, klass);
+            }
+            return Interpreter.NORMAL;
+        }
+    }
+
+    // under --sample every statement is wrapped in one, which publishes its line before it runs
+    static class Sampled extends StmtNode {
+        private final CallStack calls;
+        private final int line;
+        private final StmtNode statement;
+
+        Sampled(CallStack calls, int line, StmtNode statement) {
+            this.calls = calls;
+            this.line = line;
+            this.statement = statement;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            calls.line(line);
+            return statement.execute(environment);
+        }
+    }
+
+    // under --annotate every statement is wrapped in one, which counts it and moves the clock to its line
+    static class Counted extends StmtNode {
+        private final Stmt stmt;
+        private final StmtNode statement;
+
+        Counted(Stmt stmt, StmtNode statement) {
+            this.stmt = stmt;
+            this.statement = statement;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            LineProfiler.statement(stmt);
+            return statement.execute(environment);
+        }
+    }
+}
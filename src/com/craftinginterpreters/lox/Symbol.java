@@ -0,0 +1,111 @@
+package com.craftinginterpreters.lox;
+
+// An interned name. Every spelling of an identifier maps to one Symbol with a dense id,
+// so the runtime tables compare names by identity and hash them by id instead of by their characters.
+final class Symbol {
+    // open addressing on the hash of the characters, so the Scanner can intern its lexeme without building a String;
+    // both arrays are only written while holding the class lock, and replaced rather than resized in place
+    private static volatile Symbol[] table = new Symbol[1024];
+    private static volatile Symbol[] byId = new Symbol[512];
+    private static int count = 0;
+
+    // declared after the table so it exists when these are interned
+    static final Symbol THIS = intern("this");
+    static final Symbol SUPER = intern("super");
+    static final Symbol INIT = intern("init");
+
+    final String name;
+    final int id;
+    private final int hash;
+
+    private Symbol(String name, int id, int hash) {
+        this.name = name;
+        this.id = id;
+        this.hash = hash;
+    }
+
+    static Symbol intern(CharSequence chars) {
+        int hash = hash(chars);
+        // a name seen before is found without taking the lock, so scanners on several threads don't contend;
+        // a Symbol's fields are final, which makes one read from the table without the lock safe to use
+        Symbol[] table = Symbol.table;
+        Symbol symbol = table[find(table, chars, hash)];
+        return symbol != null ? symbol : add(chars, hash);
+    }
+
+    // the slot holding the name, or the empty slot it would go into
+    private static int find(Symbol[] table, CharSequence chars, int hash) {
+        int mask = table.length - 1;
+        int index = hash & mask;
+        for (Symbol symbol = table[index]; symbol != null; symbol = table[index]) {
+            if (symbol.hash == hash && symbol.name.contentEquals(chars)) return index;
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static synchronized Symbol add(CharSequence chars, int hash) {
+        // another thread may have added it since the lookup without the lock
+        int index = find(table, chars, hash);
+        if (table[index] != null) return table[index];
+
+        Symbol symbol = new Symbol(chars.toString(), count, hash);
+        if (count == byId.length) {
+            Symbol[] grown = new Symbol[count * 2];
+            System.arraycopy(byId, 0, grown, 0, count);
+            byId = grown;
+        }
+        byId[count++] = symbol;
+        table[index] = symbol;
+        // keep the table at most half full
+        if (count * 2 > table.length) rehash();
+        return symbol;
+    }
+
+    static Symbol forId(int id) {
+        Symbol[] symbols = byId;
+        Symbol symbol = id < symbols.length ? symbols[id] : null;
+        return symbol != null ? symbol : forIdLocked(id);
+    }
+
+    private static synchronized Symbol forIdLocked(int id) {
+        return byId[id];
+    }
+
+    // the number of symbols so far, every id is below it
+    static synchronized int count() {
+        return count;
+    }
+
+    private static int hash(CharSequence chars) {
+        int hash = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        // spread the high bits, identifiers are short
+        return hash ^ (hash >>> 16);
+    }
+
+    private static void rehash() {
+        Symbol[] grown = new Symbol[table.length * 2];
+        int mask = grown.length - 1;
+        for (Symbol symbol : table) {
+            if (symbol == null) continue;
+            int index = symbol.hash & mask;
+            while (grown[index] != null) index = (index + 1) & mask;
+            grown[index] = symbol;
+        }
+        table = grown;
+    }
+
+    // ids are dense, so they spread perfectly over a hash table
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox;
+
+// The completion of 'return f(args);' when f is a LoxFunction: instead of calling f and
+// nesting its body inside the caller's, the engines hand the call back up as this completion,
+// and the trampoline in LoxFunction runs it in the same Java frame once the caller's body has finished.
+class TailCall {
+    final LoxFunction function;
+    // the receiver of a fused obj.method(args) call, null when the function carries its own (or has none)
+    final LoxInstance receiver;
+    final Object[] arguments;
+
+    TailCall(LoxFunction function, LoxInstance receiver, Object[] arguments) {
+        this.function = function;
+        this.receiver = receiver;
+        this.arguments = arguments;
+    }
+}
@@ -5,12 +5,28 @@ class Token{
     final String lexeme;
     final Object literal;
     final int line;
+    // the interned name of an identifier, 'this' or 'super', which is what environments and classes are keyed by
+    final Symbol symbol;
+    // the imported module the token was read from, for error messages; null in the main script and the REPL
+    final String file;
 
     Token(TokenType type, String lexeme, Object literal, int line){
+        this(type, lexeme, literal, line, null);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, String file){
+        this(type, lexeme, literal, line,
+            type == TokenType.IDENTIFIER || type == TokenType.THIS || type == TokenType.SUPER ? Symbol.intern(lexeme) : null,
+            file);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, Symbol symbol, String file){
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = symbol;
+        this.file = file;
     }
     
 
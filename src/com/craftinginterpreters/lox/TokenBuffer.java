@@ -0,0 +1,139 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+// The Parser's window of scanned tokens, stored as parallel arrays instead of one Token object per token.
+// Identifiers are kept as the id of their Symbol, numbers and strings keep their text in a shared char pool;
+// a Token is built on demand when the Parser puts one into the AST or reports an error at it.
+class TokenBuffer {
+    static final int CAPACITY = 1024;
+
+    private static final TokenType[] TYPES = TokenType.values();
+    // the fixed lexeme of every other token type, by ordinal
+    private static final String[] LEXEMES = new String[TYPES.length];
+
+    static {
+        fixed(LEFT_PAREN, "("); fixed(RIGHT_PAREN, ")"); fixed(LEFT_BRACE, "{"); fixed(RIGHT_BRACE, "}");
+        fixed(COMMA, ","); fixed(DOT, "."); fixed(MINUS, "-"); fixed(PLUS, "+");
+        fixed(SEMICOLON, ";"); fixed(SLASH, "/"); fixed(STAR, "*");
+        fixed(BANG, "!"); fixed(BANG_EQUAL, "!="); fixed(EQUAL, "="); fixed(EQUAL_EQUAL, "==");
+        fixed(GREATER, ">"); fixed(GREATER_EQUAL, ">="); fixed(LESS, "<"); fixed(LESS_EQUAL, "<=");
+        fixed(EOF, "");
+        // keywords are spelled like their type
+        for (TokenType type : TYPES) {
+            if (LEXEMES[type.ordinal()] == null && hasFixedText(type)) {
+                LEXEMES[type.ordinal()] = type.name().toLowerCase();
+            }
+        }
+    }
+
+    private final int[] types = new int[CAPACITY];
+    private final int[] lines = new int[CAPACITY];
+    private final int[] starts = new int[CAPACITY];
+    private final int[] lengths = new int[CAPACITY];
+    private final int[] symbols = new int[CAPACITY];
+    private int count = 0;
+
+    private char[] text = new char[4096];
+    private int textLength = 0;
+
+    // the module the tokens come from, null for the main script
+    private final String file;
+
+    TokenBuffer(String file) {
+        this.file = file;
+    }
+
+    private static void fixed(TokenType type, String lexeme) {
+        LEXEMES[type.ordinal()] = lexeme;
+    }
+
+    private static boolean hasFixedText(TokenType type) {
+        return type != IDENTIFIER && type != STRING && type != NUMBER;
+    }
+
+    private static boolean hasText(TokenType type) {
+        return type == STRING || type == NUMBER;
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean isFull() {
+        return count == CAPACITY;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    void add(TokenType type, int line, StringBuilder lexeme) {
+        int start = textLength;
+        int length = 0;
+        if (hasText(type)) {
+            length = lexeme.length();
+            if (textLength + length > text.length) {
+                char[] grown = new char[Math.max(text.length * 2, textLength + length)];
+                System.arraycopy(text, 0, grown, 0, textLength);
+                text = grown;
+            }
+            lexeme.getChars(0, length, text, textLength);
+            textLength += length;
+        }
+
+        types[count] = type.ordinal();
+        lines[count] = line;
+        starts[count] = start;
+        lengths[count] = length;
+        count++;
+    }
+
+    void addIdentifier(Symbol symbol, int line) {
+        types[count] = IDENTIFIER.ordinal();
+        lines[count] = line;
+        starts[count] = textLength;
+        lengths[count] = 0;
+        symbols[count] = symbol.id;
+        count++;
+    }
+
+    // makes room for the next window, keeping only the last token, which becomes index 0
+    void retainLast() {
+        int last = count - 1;
+        System.arraycopy(text, starts[last], text, 0, lengths[last]);
+        textLength = lengths[last];
+        types[0] = types[last];
+        lines[0] = lines[last];
+        starts[0] = 0;
+        lengths[0] = lengths[last];
+        symbols[0] = symbols[last];
+        count = 1;
+    }
+
+    Token token(int index) {
+        TokenType type = type(index);
+        if (type == IDENTIFIER) {
+            // the lexeme is the symbol's own String, shared by every occurrence of the name
+            Symbol symbol = Symbol.forId(symbols[index]);
+            return new Token(type, symbol.name, null, lines[index], symbol, file);
+        }
+        if (hasFixedText(type)) {
+            return new Token(type, LEXEMES[types[index]], null, lines[index], file);
+        }
+
+        String lexeme = new String(text, starts[index], lengths[index]);
+        Object literal = null;
+        if (type == NUMBER) {
+            literal = Double.valueOf(lexeme);
+        } else if (type == STRING) {
+            // Trim the surrounding quotes.
+            literal = lexeme.substring(1, lexeme.length() - 1);
+        }
+        return new Token(type, lexeme, literal, lines[index], file);
+    }
+}
@@ -24,6 +24,7 @@ enum TokenType{
     CLASS, THIS, SUPER,
     VAR,
     PRINT,
+    IMPORT,
     NIL,
 
     // EOF
@@ -0,0 +1,514 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Stack-based virtual machine executing the bytecode produced by the VmCompiler.
+class VM {
+    private static final int FRAMES_MAX = 8192;
+
+    // one activation of a closure, 'slots' is where its locals start on the value stack
+    private static class CallFrame {
+        VmClosure closure;
+        int ip;
+        int slots;
+    }
+
+    // raised inside the loop, reported with the line of the failing instruction
+    private static class VmError extends RuntimeException {
+        VmError(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final Map<Symbol, Object> globals = new HashMap<>();
+    private Object[] stack = new Object[256];
+    private int stackTop = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    // open upvalues sorted by stack slot, top-most first
+    private VmUpvalue openUpvalues = null;
+
+    VM() {
+        globals.put(Symbol.intern("clock"), new NativeFunction("clock", 0,
+            arguments -> (double)System.currentTimeMillis() / 1000.0));
+    }
+
+    void interpret(VmFunction script) {
+        VmClosure closure = new VmClosure(script);
+        push(closure);
+        call(closure, 0);
+        run();
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.slots;
+
+        try {
+            for (;;) {
+                switch (code[ip++]) {
+                    case OpCode.CONSTANT:
+                        push(constants[readIndex(code, ip)]);
+                        ip += 3;
+                        break;
+                    case OpCode.NIL:   push(null); break;
+                    case OpCode.TRUE:  push(true); break;
+                    case OpCode.FALSE: push(false); break;
+                    case OpCode.POP:   stackTop--; break;
+
+                    case OpCode.GET_LOCAL:
+                        push(stack[base + (code[ip++] & 0xff)]);
+                        break;
+                    case OpCode.SET_LOCAL:
+                        // assignment is an expression, the value stays on the stack
+                        stack[base + (code[ip++] & 0xff)] = peek(0);
+                        break;
+                    // slots past 255, only functions with that many locals use these
+                    case OpCode.GET_LOCAL_LONG:
+                        push(stack[base + readIndex(code, ip)]);
+                        ip += 3;
+                        break;
+                    case OpCode.SET_LOCAL_LONG:
+                        stack[base + readIndex(code, ip)] = peek(0);
+                        ip += 3;
+                        break;
+                    case OpCode.GET_GLOBAL: {
+                        Symbol name = (Symbol)constants[readIndex(code, ip)];
+                        ip += 3;
+                        Object value = globals.get(name);
+                        if (value == null && !globals.containsKey(name)) {
+                            throw new VmError("Undefined variable '" + name + "'.");
+                        }
+                        push(value);
+                        break;
+                    }
+                    case OpCode.DEFINE_GLOBAL:
+                        globals.put((Symbol)constants[readIndex(code, ip)], pop());
+                        ip += 3;
+                        break;
+                    case OpCode.SET_GLOBAL: {
+                        Symbol name = (Symbol)constants[readIndex(code, ip)];
+                        ip += 3;
+                        if (!globals.containsKey(name)) {
+                            throw new VmError("Undefined variable '" + name + "'.");
+                        }
+                        globals.put(name, peek(0));
+                        break;
+                    }
+                    case OpCode.GET_UPVALUE: {
+                        VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                        push(upvalue.isClosed ? upvalue.closed : stack[upvalue.location]);
+                        break;
+                    }
+                    case OpCode.SET_UPVALUE:
+                        setUpvalue(frame.closure.upvalues[code[ip++] & 0xff]);
+                        break;
+                    case OpCode.GET_UPVALUE_LONG: {
+                        VmUpvalue upvalue = frame.closure.upvalues[readIndex(code, ip)];
+                        ip += 3;
+                        push(upvalue.isClosed ? upvalue.closed : stack[upvalue.location]);
+                        break;
+                    }
+                    case OpCode.SET_UPVALUE_LONG:
+                        setUpvalue(frame.closure.upvalues[readIndex(code, ip)]);
+                        ip += 3;
+                        break;
+                    case OpCode.GET_PROPERTY: {
+                        Symbol name = (Symbol)constants[readIndex(code, ip)];
+                        ip += 3;
+                        if (!(peek(0) instanceof VmInstance)) {
+                            throw new VmError("Only instance have properties.");
+                        }
+
+                        VmInstance instance = (VmInstance)peek(0);
+                        if (instance.fields.containsKey(name)) {
+                            stack[stackTop - 1] = instance.fields.get(name);
+                            break;
+                        }
+                        stack[stackTop - 1] = bindMethod(instance.klass, name, instance);
+                        break;
+                    }
+                    case OpCode.SET_PROPERTY: {
+                        Symbol name = (Symbol)constants[readIndex(code, ip)];
+                        ip += 3;
+                        if (!(peek(1) instanceof VmInstance)) {
+                            throw new VmError("Obly instance have fields.");
+                        }
+
+                        Object value = pop();
+                        ((VmInstance)pop()).fields.put(name, value);
+                        push(value);
+                        break;
+                    }
+                    case OpCode.GET_SUPER: {
+                        Symbol name = (Symbol)constants[readIndex(code, ip)];
+                        ip += 3;
+                        VmClass superclass = (VmClass)pop();
+                        stack[stackTop - 1] = bindMethod(superclass, name, peek(0));
+                        break;
+                    }
+
+                    case OpCode.EQUAL: {
+                        Object b = pop();
+                        stack[stackTop - 1] = Interpreter.isEqual(peek(0), b);
+                        break;
+                    }
+                    case OpCode.NOT_EQUAL: {
+                        Object b = pop();
+                        stack[stackTop - 1] = !Interpreter.isEqual(peek(0), b);
+                        break;
+                    }
+                    case OpCode.GREATER: {
+                        checkNumberOperands();
+                        double b = (double)pop();
+                        stack[stackTop - 1] = (double)peek(0) > b;
+                        break;
+                    }
+                    case OpCode.GREATER_EQUAL: {
+                        checkNumberOperands();
+                        double b = (double)pop();
+                        stack[stackTop - 1] = (double)peek(0) >= b;
+                        break;
+                    }
+                    case OpCode.LESS: {
+                        checkNumberOperands();
+                        double b = (double)pop();
+                        stack[stackTop - 1] = (double)peek(0) < b;
+                        break;
+                    }
+                    case OpCode.LESS_EQUAL: {
+                        checkNumberOperands();
+                        double b = (double)pop();
+                        stack[stackTop - 1] = (double)peek(0) <= b;
+                        break;
+                    }
+                    case OpCode.ADD: {
+                        Object b = peek(0);
+                        Object a = peek(1);
+                        if (a instanceof Double && b instanceof Double) {
+                            stackTop--;
+                            stack[stackTop - 1] = (double)a + (double)b;
+                        } else if (a instanceof String && b instanceof String) {
+                            stackTop--;
+                            stack[stackTop - 1] = (String)a + (String)b;
+                        } else {
+                            throw new VmError("Operands must be two numbers or two strings.");
+                        }
+                        break;
+                    }
+                    case OpCode.SUBTRACT: {
+                        checkNumberOperands();
+                        double b = (double)pop();
+                        stack[stackTop - 1] = (double)peek(0) - b;
+                        break;
+                    }
+                    case OpCode.MULTIPLY: {
+                        checkNumberOperands();
+                        double b = (double)pop();
+                        stack[stackTop - 1] = (double)peek(0) * b;
+                        break;
+                    }
+                    case OpCode.DIVIDE: {
+                        checkNumberOperands();
+                        double b = (double)pop();
+                        stack[stackTop - 1] = (double)peek(0) / b;
+                        break;
+                    }
+                    case OpCode.NOT:
+                        stack[stackTop - 1] = !Interpreter.isTruthy(peek(0));
+                        break;
+                    case OpCode.NEGATE:
+                        if (!(peek(0) instanceof Double)) {
+                            throw new VmError("Operand must be a number.");
+                        }
+                        stack[stackTop - 1] = -(double)peek(0);
+                        break;
+
+                    case OpCode.PRINT:
+                        System.out.println(Interpreter.stringfy(pop()));
+                        break;
+                    case OpCode.JUMP:
+                        ip += readIndex(code, ip) + 3;
+                        break;
+                    case OpCode.JUMP_IF_FALSE:
+                        if (!Interpreter.isTruthy(peek(0))) {
+                            ip += readIndex(code, ip);
+                        }
+                        ip += 3;
+                        break;
+                    case OpCode.LOOP:
+                        ip -= readIndex(code, ip) - 3;
+                        break;
+
+                    case OpCode.CALL:
+                    case OpCode.INVOKE:
+                    case OpCode.SUPER_INVOKE: {
+                        byte op = code[ip - 1];
+                        if (op == OpCode.CALL) {
+                            int argCount = code[ip++] & 0xff;
+                            frame.ip = ip;
+                            callValue(peek(argCount), argCount);
+                        } else {
+                            Symbol name = (Symbol)constants[readIndex(code, ip)];
+                            int argCount = code[ip + 3] & 0xff;
+                            ip += 4;
+                            frame.ip = ip;
+                            if (op == OpCode.INVOKE) {
+                                invoke(name, argCount);
+                            } else {
+                                invokeFromClass((VmClass)pop(), name, argCount);
+                            }
+                        }
+
+                        // continue in the callee's frame (or in the same one after a native call)
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.slots;
+                        break;
+                    }
+                    case OpCode.CLOSURE: {
+                        VmClosure closure = new VmClosure((VmFunction)constants[readIndex(code, ip)]);
+                        ip += 3;
+                        for (int i = 0; i < closure.upvalues.length; i++) {
+                            boolean isLocal = code[ip++] == 1;
+                            int index = readIndex(code, ip);
+                            ip += 3;
+                            closure.upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+                        }
+                        push(closure);
+                        break;
+                    }
+                    case OpCode.CLOSE_UPVALUE:
+                        closeUpvalues(stackTop - 1);
+                        stackTop--;
+                        break;
+                    case OpCode.RETURN: {
+                        Object result = pop();
+                        closeUpvalues(base);
+                        frameCount--;
+                        if (frameCount == 0) {
+                            // pop the script closure itself
+                            stackTop = 0;
+                            return;
+                        }
+
+                        stackTop = base;
+                        push(result);
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.slots;
+                        break;
+                    }
+
+                    case OpCode.CLASS:
+                        push(new VmClass(((Symbol)constants[readIndex(code, ip)]).name));
+                        ip += 3;
+                        break;
+                    case OpCode.INHERIT: {
+                        if (!(peek(1) instanceof VmClass)) {
+                            throw new VmError("Superclass must be a class");
+                        }
+                        VmClass superclass = (VmClass)peek(1);
+                        VmClass subclass = (VmClass)peek(0);
+                        // copy-down inheritance, methods declared by the subclass will overwrite these
+                        subclass.methods.putAll(superclass.methods);
+                        subclass.initializer = superclass.initializer;
+                        subclass.superclass = superclass;
+                        stackTop--;
+                        break;
+                    }
+                    case OpCode.METHOD: {
+                        Symbol name = (Symbol)constants[readIndex(code, ip)];
+                        ip += 3;
+                        VmClosure method = (VmClosure)pop();
+                        VmClass klass = (VmClass)peek(0);
+                        klass.methods.put(name, method);
+                        if (name == Symbol.INIT) klass.initializer = method;
+                        break;
+                    }
+
+                    default:
+                        throw new IllegalStateException("Unknown opcode " + code[ip - 1]);
+                }
+            }
+        } catch (VmError error) {
+            Chunk chunk = frame.closure.function.chunk;
+            // ip already points past the failing instruction's first byte
+            Lox.runtimeError(error.getMessage(), chunk.getFile(ip - 1), chunk.getLine(ip - 1));
+            resetStack();
+        }
+    }
+
+    private static int readIndex(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 16) | ((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff);
+    }
+
+    private void push(Object value) {
+        if (stackTop == stack.length) {
+            stack = Arrays.copyOf(stack, stackTop * 2);
+        }
+        stack[stackTop++] = value;
+    }
+
+    private Object pop() {
+        return stack[--stackTop];
+    }
+
+    private Object peek(int distance) {
+        return stack[stackTop - 1 - distance];
+    }
+
+    private void checkNumberOperands() {
+        if (peek(0) instanceof Double && peek(1) instanceof Double) return;
+        throw new VmError("Operands must be numbers.");
+    }
+
+    //! -------------------Calls------------------------
+
+    private void callValue(Object callee, int argCount) {
+        if (callee instanceof VmClosure) {
+            call((VmClosure)callee, argCount);
+        } else if (callee instanceof VmBoundMethod) {
+            VmBoundMethod bound = (VmBoundMethod)callee;
+            // the receiver takes the callee's slot, where the method reads 'this'
+            stack[stackTop - argCount - 1] = bound.receiver;
+            call(bound.method, argCount);
+        } else if (callee instanceof VmClass) {
+            VmClass klass = (VmClass)callee;
+            stack[stackTop - argCount - 1] = new VmInstance(klass);
+            if (klass.initializer != null) {
+                call(klass.initializer, argCount);
+            } else if (argCount != 0) {
+                throw new VmError("Expected 0 arguments but got " + argCount);
+            }
+        } else if (callee instanceof LoxCallable) {
+            LoxCallable function = (LoxCallable)callee;
+            if (argCount != function.arity()) {
+                throw new VmError("Expected " + function.arity() + " arguments but got " + argCount);
+            }
+
+            List<Object> arguments = new ArrayList<>(argCount);
+            for (int i = stackTop - argCount; i < stackTop; i++) {
+                arguments.add(stack[i]);
+            }
+            Object result = function.call(null, arguments);
+            stackTop -= argCount + 1;
+            push(result);
+        } else {
+            throw new VmError("Can only call functions and classes.");
+        }
+    }
+
+    private void call(VmClosure closure, int argCount) {
+        if (argCount != closure.function.arity) {
+            throw new VmError("Expected " + closure.function.arity + " arguments but got " + argCount);
+        }
+
+        if (frameCount == FRAMES_MAX) {
+            throw new VmError("Stack overflow.");
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        if (frames[frameCount] == null) {
+            frames[frameCount] = new CallFrame();
+        }
+
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.slots = stackTop - argCount - 1;
+    }
+
+    private void invoke(Symbol name, int argCount) {
+        Object receiver = peek(argCount);
+        if (!(receiver instanceof VmInstance)) {
+            throw new VmError("Only instance have properties.");
+        }
+
+        VmInstance instance = (VmInstance)receiver;
+        // a field holding a function shadows a method of the same name
+        if (instance.fields.containsKey(name)) {
+            Object value = instance.fields.get(name);
+            stack[stackTop - argCount - 1] = value;
+            callValue(value, argCount);
+            return;
+        }
+        invokeFromClass(instance.klass, name, argCount);
+    }
+
+    private void invokeFromClass(VmClass klass, Symbol name, int argCount) {
+        VmClosure method = klass.methods.get(name);
+        if (method == null) {
+            throw new VmError("Undefined property '" + name + "'.");
+        }
+        call(method, argCount);
+    }
+
+    private VmBoundMethod bindMethod(VmClass klass, Symbol name, Object receiver) {
+        VmClosure method = klass.methods.get(name);
+        if (method == null) {
+            throw new VmError("Undefined property '" + name + "'.");
+        }
+        return new VmBoundMethod(receiver, method);
+    }
+
+    //! -------------------Upvalues------------------------
+
+    private VmUpvalue captureUpvalue(int location) {
+        VmUpvalue previous = null;
+        VmUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.location > location) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        // closures capturing the same variable share one upvalue
+        if (upvalue != null && upvalue.location == location) return upvalue;
+
+        VmUpvalue created = new VmUpvalue(location, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void setUpvalue(VmUpvalue upvalue) {
+        if (upvalue.isClosed) {
+            upvalue.closed = peek(0);
+        } else {
+            stack[upvalue.location] = peek(0);
+        }
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.location >= last) {
+            VmUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.location];
+            upvalue.isClosed = true;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    //! -------------------Errors------------------------
+
+    private void resetStack() {
+        Arrays.fill(stack, 0, stackTop, null);
+        stackTop = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+}
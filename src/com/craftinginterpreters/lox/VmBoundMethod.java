@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox;
+
+// A method accessed as a value, e.g. 'var m = obj.method;', remembers the instance it was accessed from.
+class VmBoundMethod {
+    final Object receiver;
+    final VmClosure method;
+
+    VmBoundMethod(Object receiver, VmClosure method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
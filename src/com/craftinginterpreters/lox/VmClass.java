@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class VmClass {
+    final String name;
+    // inherited methods are copied down when the class is created, so a lookup never walks the superclass chain
+    final Map<Symbol, VmClosure> methods = new HashMap<>();
+    VmClass superclass;
+    VmClosure initializer;
+
+    VmClass(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return "class: " + name + (superclass != null ? " < " + superclass : "");
+    }
+}
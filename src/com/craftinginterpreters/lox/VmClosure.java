@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox;
+
+// A VmFunction together with the variables it captured from enclosing functions.
+class VmClosure {
+    final VmFunction function;
+    final VmUpvalue[] upvalues;
+
+    VmClosure(VmFunction function) {
+        this.function = function;
+        this.upvalues = new VmUpvalue[function.upvalueCount];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
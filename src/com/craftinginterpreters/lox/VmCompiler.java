@@ -0,0 +1,657 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Compiles the resolved AST into bytecode for the VM.
+// The Resolver has already reported the semantic errors, so this pass only maps variables
+// to VM stack slots and upvalues (which differ from the Interpreter's environment slots) and emits code.
+class VmCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // what a three byte operand can address, the *_LONG forms take over from slot 256
+    private static final int MAX_LOCALS = 1 << 24;
+    private static final int MAX_UPVALUES = 1 << 24;
+    private static final int MAX_INDEX = (1 << 24) - 1;
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
+    }
+
+    private static class Local {
+        final String name;
+        int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    // compiler state for the function whose body is being emitted
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VmFunction function;
+        final FunctionType type;
+        Local[] locals = new Local[256];
+        int localCount = 0;
+        boolean[] upvalueIsLocal = new boolean[16];
+        int[] upvalueIndexes = new int[16];
+        int scopeDepth = 0;
+
+        FunctionState(FunctionState enclosing, VmFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+
+            // slot 0 holds the callee, inside methods it is the receiver and can be read as 'this'
+            String name = (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) ? "this" : "";
+            locals[localCount++] = new Local(name, 0);
+        }
+    }
+
+    private FunctionState current = null;
+    // the line and module of the node being compiled, recorded for every emitted byte
+    private int line = 1;
+    private String file = null;
+
+    VmFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null, new VmFunction(null), FunctionType.SCRIPT);
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        return endFunction();
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    //! -------------------Stmts------------------------
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        at(stmt.name);
+        int nameConstant = identifierConstant(stmt.name);
+        declareVariable(stmt.name);
+
+        emitOp(OpCode.CLASS);
+        emitIndex(nameConstant);
+        defineVariable(nameConstant);
+
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+
+            // 'super' becomes a local of a scope surrounding the methods, which they capture as an upvalue
+            beginScope();
+            addLocal("super", stmt.superclass.name);
+            markInitialized();
+
+            namedVariable(stmt.name);
+            emitOp(OpCode.INHERIT);
+        }
+
+        // the class stays on the stack while its methods are attached
+        namedVariable(stmt.name);
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = method.name.lexeme.equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            function(method, type);
+            at(method.name);
+            emitOp(OpCode.METHOD);
+            emitIndex(identifierConstant(method.name));
+        }
+        emitOp(OpCode.POP);
+
+        if (stmt.superclass != null) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        at(stmt.keyword);
+        if (stmt.value == null) {
+            emitReturn();
+        } else {
+            compile(stmt.value);
+            emitOp(OpCode.RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        at(stmt.name);
+        declareVariable(stmt.name);
+        // a function can refer to itself as soon as its name is declared
+        markInitialized();
+        function(stmt, FunctionType.FUNCTION);
+        defineVariable(identifierConstant(stmt.name));
+        return null;
+    }
+
+    private void function(Stmt.Function stmt, FunctionType type) {
+        FunctionState state = new FunctionState(current, new VmFunction(stmt.name.lexeme), type);
+        current = state;
+        beginScope();
+
+        for (Token param : stmt.params) {
+            state.function.arity++;
+            declareVariable(param);
+            markInitialized();
+        }
+
+        for (Stmt statement : stmt.body) {
+            compile(statement);
+        }
+
+        // no endScope(): the whole frame is discarded by RETURN
+        VmFunction function = endFunction();
+
+        at(stmt.name);
+        emitOp(OpCode.CLOSURE);
+        emitIndex(makeConstant(function));
+        for (int i = 0; i < function.upvalueCount; i++) {
+            emitByte(state.upvalueIsLocal[i] ? 1 : 0);
+            emitIndex(state.upvalueIndexes[i]);
+        }
+    }
+
+    private VmFunction endFunction() {
+        emitReturn();
+        VmFunction function = current.function;
+        function.chunk.finish();
+        current = current.enclosing;
+        return function;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emitOp(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        // the ModuleLoader has already put the module's statements in place of the import
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitOp(OpCode.POP);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emitOp(OpCode.POP);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emitOp(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        at(stmt.name);
+        declareVariable(stmt.name);
+
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emitOp(OpCode.NIL);
+        }
+
+        at(stmt.name);
+        defineVariable(identifierConstant(stmt.name));
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.function.chunk.count;
+        // a condition that is always true needs neither the test nor the exit
+        if (Interpreter.isAlwaysTrue(stmt.condition)) {
+            compile(stmt.body);
+            emitLoop(loopStart);
+            return null;
+        }
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitOp(OpCode.POP);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emitOp(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // the loop variable is a local of its own scope, captured by closures as one upvalue for the whole loop
+        beginScope();
+        if (stmt.initializer != null) compile(stmt.initializer);
+
+        int loopStart = current.function.chunk.count;
+        int exitJump = -1;
+        if (stmt.condition != null && !Interpreter.isAlwaysTrue(stmt.condition)) {
+            compile(stmt.condition);
+            exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emitOp(OpCode.POP);
+        }
+
+        compile(stmt.body);
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            emitOp(OpCode.POP);
+        }
+        emitLoop(loopStart);
+
+        if (exitJump != -1) {
+            patchJump(exitJump);
+            emitOp(OpCode.POP);
+        }
+        endScope();
+        return null;
+    }
+
+    //! -------------------Exprs------------------------
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        at(expr.keyword);
+        namedVariable(syntheticToken("this"));
+        namedVariable(syntheticToken("super"));
+        at(expr.method);
+        emitOp(OpCode.GET_SUPER);
+        emitIndex(identifierConstant(expr.method));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        namedVariable(expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        at(expr.name);
+        emitOp(OpCode.SET_PROPERTY);
+        emitIndex(identifierConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        at(expr.name);
+        emitOp(OpCode.GET_PROPERTY);
+        emitIndex(identifierConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        // obj.method(args) and super.method(args) call the method directly instead of allocating a bound method
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)expr.callee;
+            compile(get.object);
+            compileArguments(expr.arguments);
+            at(expr.paren);
+            emitOp(OpCode.INVOKE);
+            emitIndex(identifierConstant(get.name));
+            emitByte(expr.arguments.size());
+            return null;
+        }
+
+        if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super)expr.callee;
+            at(superExpr.keyword);
+            namedVariable(syntheticToken("this"));
+            compileArguments(expr.arguments);
+            namedVariable(syntheticToken("super"));
+            at(expr.paren);
+            emitOp(OpCode.SUPER_INVOKE);
+            emitIndex(identifierConstant(superExpr.method));
+            emitByte(expr.arguments.size());
+            return null;
+        }
+
+        compile(expr.callee);
+        compileArguments(expr.arguments);
+        at(expr.paren);
+        emitOp(OpCode.CALL);
+        emitByte(expr.arguments.size());
+        return null;
+    }
+
+    private void compileArguments(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            compile(argument);
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        at(expr.name);
+
+        int arg = resolveLocal(current, expr.name.lexeme);
+        if (arg != -1) {
+            emitSlot(OpCode.SET_LOCAL, OpCode.SET_LOCAL_LONG, arg);
+        } else if ((arg = resolveUpvalue(current, expr.name)) != -1) {
+            emitSlot(OpCode.SET_UPVALUE, OpCode.SET_UPVALUE_LONG, arg);
+        } else {
+            emitOp(OpCode.SET_GLOBAL);
+            emitIndex(identifierConstant(expr.name));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+
+        // short-circuit: the left operand stays on the stack as the result when it decides the outcome
+        if (expr.operator.type == TokenType.AND) {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emitOp(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emitOp(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        at(expr.operator);
+        switch (expr.operator.type) {
+            case PLUS:          emitOp(OpCode.ADD); break;
+            case MINUS:         emitOp(OpCode.SUBTRACT); break;
+            case STAR:          emitOp(OpCode.MULTIPLY); break;
+            case SLASH:         emitOp(OpCode.DIVIDE); break;
+            case GREATER:       emitOp(OpCode.GREATER); break;
+            case GREATER_EQUAL: emitOp(OpCode.GREATER_EQUAL); break;
+            case LESS:          emitOp(OpCode.LESS); break;
+            case LESS_EQUAL:    emitOp(OpCode.LESS_EQUAL); break;
+            case EQUAL_EQUAL:   emitOp(OpCode.EQUAL); break;
+            case BANG_EQUAL:    emitOp(OpCode.NOT_EQUAL); break;
+            default:
+                // Unreachable
+                throw new IllegalStateException("Unknown binary operator " + expr.operator.type);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emitOp(OpCode.NIL);
+        } else if (expr.value.equals(true)) {
+            emitOp(OpCode.TRUE);
+        } else if (expr.value.equals(false)) {
+            emitOp(OpCode.FALSE);
+        } else {
+            emitOp(OpCode.CONSTANT);
+            emitIndex(makeConstant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        at(expr.operator);
+        emitOp(expr.operator.type == TokenType.MINUS ? OpCode.NEGATE : OpCode.NOT);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        namedVariable(expr.name);
+        return null;
+    }
+
+    //! -------------------Variables------------------------
+
+    private void namedVariable(Token name) {
+        at(name);
+        int arg = resolveLocal(current, name.lexeme);
+        if (arg != -1) {
+            emitSlot(OpCode.GET_LOCAL, OpCode.GET_LOCAL_LONG, arg);
+        } else if ((arg = resolveUpvalue(current, name)) != -1) {
+            emitSlot(OpCode.GET_UPVALUE, OpCode.GET_UPVALUE_LONG, arg);
+        } else {
+            emitOp(OpCode.GET_GLOBAL);
+            emitIndex(identifierConstant(name));
+        }
+    }
+
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.localCount - 1; i >= 0; i--) {
+            if (state.locals[i].name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    // looks the name up in the enclosing functions, threading an upvalue through every function in between
+    private int resolveUpvalue(FunctionState state, Token name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name.lexeme);
+        if (local != -1) {
+            state.enclosing.locals[local].isCaptured = true;
+            return addUpvalue(state, local, true, name);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(state, upvalue, false, name);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal, Token name) {
+        int count = state.function.upvalueCount;
+        for (int i = 0; i < count; i++) {
+            if (state.upvalueIndexes[i] == index && state.upvalueIsLocal[i] == isLocal) return i;
+        }
+
+        if (count == MAX_UPVALUES) {
+            Lox.error(name, "Too many closure variables in function.");
+            return 0;
+        }
+
+        if (count == state.upvalueIndexes.length) {
+            state.upvalueIsLocal = Arrays.copyOf(state.upvalueIsLocal, count * 2);
+            state.upvalueIndexes = Arrays.copyOf(state.upvalueIndexes, count * 2);
+        }
+        state.upvalueIsLocal[count] = isLocal;
+        state.upvalueIndexes[count] = index;
+        return state.function.upvalueCount++;
+    }
+
+    private void declareVariable(Token name) {
+        // globals are late bound by name
+        if (current.scopeDepth == 0) return;
+        addLocal(name.lexeme, name);
+    }
+
+    private void addLocal(String name, Token token) {
+        if (current.localCount == MAX_LOCALS) {
+            Lox.error(token, "Too many local variables in function.");
+            return;
+        }
+        if (current.localCount == current.locals.length) {
+            current.locals = Arrays.copyOf(current.locals, current.localCount * 2);
+        }
+        // depth -1 until the initializer has been compiled
+        current.locals[current.localCount++] = new Local(name, -1);
+    }
+
+    private void markInitialized() {
+        if (current.scopeDepth == 0) return;
+        current.locals[current.localCount - 1].depth = current.scopeDepth;
+    }
+
+    private void defineVariable(int global) {
+        // a local is simply the value left on top of the stack
+        if (current.scopeDepth > 0) {
+            markInitialized();
+            return;
+        }
+        emitOp(OpCode.DEFINE_GLOBAL);
+        emitIndex(global);
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+
+        while (current.localCount > 0 && current.locals[current.localCount - 1].depth > current.scopeDepth) {
+            // captured locals move off the stack into their upvalue
+            emitOp(current.locals[current.localCount - 1].isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+            current.localCount--;
+        }
+    }
+
+    private void at(Token token) {
+        line = token.line;
+        file = token.file;
+    }
+
+    private Token syntheticToken(String text) {
+        return new Token(TokenType.IDENTIFIER, text, null, line, file);
+    }
+
+    //! -------------------Emitting------------------------
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    private void emitByte(int b) {
+        chunk().write(b, line, file);
+    }
+
+    private void emitOp(byte op) {
+        chunk().write(op, line, file);
+    }
+
+    private void emitIndex(int value) {
+        emitByte((value >> 16) & 0xff);
+        emitByte((value >> 8) & 0xff);
+        emitByte(value & 0xff);
+    }
+
+    // the one byte form for the first 256 slots, which is nearly every one
+    private void emitSlot(byte op, byte longOp, int slot) {
+        if (slot <= 0xff) {
+            emitOp(op);
+            emitByte(slot);
+        } else {
+            emitOp(longOp);
+            emitIndex(slot);
+        }
+    }
+
+    private void emitReturn() {
+        // initializers always return 'this'
+        if (current.type == FunctionType.INITIALIZER) {
+            emitOp(OpCode.GET_LOCAL);
+            emitByte(0);
+        } else {
+            emitOp(OpCode.NIL);
+        }
+        emitOp(OpCode.RETURN);
+    }
+
+    private int emitJump(byte op) {
+        emitOp(op);
+        emitIndex(MAX_INDEX);
+        return chunk().count - 3;
+    }
+
+    private void patchJump(int offset) {
+        // -3 to adjust for the jump offset itself
+        int jump = chunk().count - offset - 3;
+        if (jump > MAX_INDEX) {
+            Lox.error(file, line, "Too much code to jump over.");
+        }
+        chunk().code[offset] = (byte)((jump >> 16) & 0xff);
+        chunk().code[offset + 1] = (byte)((jump >> 8) & 0xff);
+        chunk().code[offset + 2] = (byte)(jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emitOp(OpCode.LOOP);
+        // +3 to also jump back over the operand itself
+        int offset = chunk().count - loopStart + 3;
+        if (offset > MAX_INDEX) {
+            Lox.error(file, line, "Loop body too large.");
+        }
+        emitIndex(offset);
+    }
+
+    private int identifierConstant(Token name) {
+        return makeConstant(name.symbol);
+    }
+
+    private int makeConstant(Object value) {
+        int index = chunk().addConstant(value);
+        if (index > MAX_INDEX) {
+            Lox.error(file, line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,19 @@
+package com.craftinginterpreters.lox;
+
+// A function compiled to bytecode, it has no runtime state of its own (see VmClosure).
+class VmFunction {
+    final String name;
+    final Chunk chunk = new Chunk();
+    int arity = 0;
+    int upvalueCount = 0;
+
+    VmFunction(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) return "<script>";
+        return "<fn " + name + ">";
+    }
+}
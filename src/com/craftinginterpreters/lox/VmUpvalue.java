@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox;
+
+// A captured variable.
+// While the declaring function is still running the upvalue is open and points at the variable's VM stack slot,
+// when that slot goes away the value is moved into the upvalue itself (closed).
+class VmUpvalue {
+    final int location;
+    Object closed;
+    boolean isClosed = false;
+    // the VM keeps open upvalues in a list sorted by stack slot, top-most first
+    VmUpvalue next;
+
+    VmUpvalue(int location, VmUpvalue next) {
+        this.location = location;
+        this.next = next;
+    }
+}
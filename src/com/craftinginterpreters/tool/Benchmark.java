@@ -0,0 +1,96 @@
+package com.craftinginterpreters.tool;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+
+import com.craftinginterpreters.lox.Lox;
+
+// Runs a Lox script on every engine in this JVM and reports the time and the bytes allocated per run,
+// e.g. bench/arithmetic.lox to see how much boxing the specialized operator nodes save.
+// The JIT is switched off so the engines themselves are measured. Every run is a session of its own without
+// the .loxc caches, like the first 'jlox script': it scans, parses, resolves and optimizes the script afresh.
+public class Benchmark {
+    private static final String[] ENGINES = {"tree", "closure", "vm"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: benchmark <script> [runs]");
+            System.exit(64);
+        }
+        String script = args[0];
+        int runs = args.length == 2 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.printf("%-8s %10s %14s%n", "engine", "ms/run", "MB alloc/run");
+        for (String engine : ENGINES) {
+            // the first run warms up the engine, it isn't measured
+            Measurement measurement = measure(new String[] {"--engine=" + engine, "--no-jit", script}, 1, runs);
+            System.out.printf("%-8s %10.1f %14.1f%n", engine, measurement.millis, measurement.allocatedMB);
+        }
+    }
+
+    // What a script costs per run, after 'warmup' runs that aren't measured: the median wall time,
+    // the bytes this thread allocated on average and the peak heap in use, all while its output is discarded.
+    // Lox.main starts a new session every time, and --no-cache keeps the front end in every run.
+    static Measurement measure(String[] loxArgs, int warmup, int runs) throws Exception {
+        loxArgs = prepend("--no-cache", loxArgs);
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int i = 0; i < warmup; i++) {
+                Lox.main(loxArgs);
+            }
+
+            // the peak starts from what is still live, not from the garbage of earlier runs
+            System.gc();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+            }
+
+            long[] nanos = new long[runs];
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                Lox.main(loxArgs);
+                nanos[i] = System.nanoTime() - start;
+            }
+            bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            // the pools peak at different moments, so their sum is an upper bound
+            long peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+            }
+
+            Arrays.sort(nanos);
+            return new Measurement(nanos[runs / 2] / 1e6, bytes / 1e6 / runs, peak / 1e6);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    private static String[] prepend(String arg, String[] args) {
+        String[] all = new String[args.length + 1];
+        all[0] = arg;
+        System.arraycopy(args, 0, all, 1, args.length);
+        return all;
+    }
+
+    static class Measurement {
+        final double millis;
+        final double allocatedMB;
+        final double peakHeapMB;
+
+        Measurement(double millis, double allocatedMB, double peakHeapMB) {
+            this.millis = millis;
+            this.allocatedMB = allocatedMB;
+            this.peakHeapMB = peakHeapMB;
+        }
+    }
+}
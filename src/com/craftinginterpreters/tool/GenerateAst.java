@@ -14,36 +14,40 @@ public class GenerateAst {
         System.exit(64);
       } 
       String outputDir = args[0];
-      defineAst(outputDir, "Expr", Arrays.asList(
-        "Super : Token keyword, Token method",
-        "This : Token keyword",
-        "Set : Expr object, Token name, Expr value",
-        "Get : Expr object, Token name",
+      // every node gets an id from the Parser for --annotate, -1 without it
+      defineAst(outputDir, "Expr", "int id = -1", Arrays.asList(
+        "Super : Token keyword, Token method | int depth = -1",
+        "This : Token keyword | int depth = -1, int slot = -1",
+        "Set : Expr object, Token name, Expr value | final PropertyCache cache = new PropertyCache()",
+        "Get : Expr object, Token name | final PropertyCache cache = new PropertyCache()",
         "Call : Expr callee, Token paren, List<Expr> arguments",
-        "Assign : Token name, Expr value",
+        "Assign : Token name, Expr value | int depth = -1, int slot = -1",
         "Logical : Expr left, Token operator, Expr right",
         "Binary : Expr left, Token operator, Expr right",
         "Grouping : Expr expression",
         "Literal : Object value",
         "Unary : Token operator, Expr right",
-        "Variable : Token name" 
+        "Variable : Token name | int depth = -1, int slot = -1"
       ));
 
-      defineAst(outputDir, "Stmt", Arrays.asList(
-        "Class : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
-        "Return : Token keyword, Expr value",
-        "Function : Token name, List<Token> params, List<Stmt> body",
-        "Block : List<Stmt> statements",
+      // every statement also knows the line it starts on, for the sampling profiler
+      defineAst(outputDir, "Stmt", "int line = 0, int id = -1", Arrays.asList(
+        "Class : Token name, Expr.Variable superclass, List<Stmt.Function> methods | int slot = -1",
+        "Return : Token keyword, Expr value | boolean tailCall = false",
+        "Function : Token name, List<Token> params, List<Stmt> body | int slot = -1, int frameSize = 0, boolean captured = false, int calls = 0, JitCode jitCode = null",
+        "Block : List<Stmt> statements | int frameSize = 0, boolean captured = false",
         "Expression : Expr expression",
+        "Import : Token keyword, Token path",
         "If : Expr condition, Stmt thenBranch, Stmt elseBranch",
             "Print : Expr expression",
-            "Var : Token name, Expr initializer:",
-            "While : Expr condition, Stmt body"
+            "Var : Token name, Expr initializer | int slot = -1",
+            "While : Expr condition, Stmt body",
+            "For : Stmt initializer, Expr condition, Expr increment, Stmt body | int frameSize = 0, boolean captured = false"
       ));
    } 
 
    private static void defineAst(
-    String outputDir, String baseName, List<String> types
+    String outputDir, String baseName, String baseAnnotations, List<String> types
    ) throws IOException{
     String path = outputDir + "/" + baseName + ".java";
     PrintWriter writer = new PrintWriter(path, "UTF-8");
@@ -54,6 +58,13 @@ public class GenerateAst {
     writer.println();
     writer.println(indents(0) + "abstract class " + baseName + "{");
     writer.println();
+    // annotations every node has, filled in like those of the subclasses
+    if (!baseAnnotations.isEmpty()) {
+        for (String annotation : baseAnnotations.split(", ")) {
+            writer.println(indents(1) + annotation + ";");
+        }
+        writer.println();
+    }
     // The base accept() method
     writer.println(indents(1) + "abstract <R> R accept(Visitor<R> visitor);");
 
@@ -64,8 +75,10 @@ public class GenerateAst {
     // The AST classes
     for(String type : types){
         String className = type.split(":")[0].trim();
-        String fields = type.split(":")[1].trim();
-        defineType(writer, baseName, className, fields);
+        // "Variable : Token name | int depth = -1" ==> final fields | mutable annotation fields
+        String[] fields = type.split(":")[1].split("\\|");
+        String annotations = fields.length > 1 ? fields[1].trim() : "";
+        defineType(writer, baseName, className, fields[0].trim(), annotations);
     }
 
 
@@ -94,7 +107,7 @@ public class GenerateAst {
    }
    private static void defineType(
     PrintWriter writer, String baseName,
-    String className, String fieldList){
+    String className, String fieldList, String annotationList){
         //?  baseName : Expr
         //?  fieldList: "Binary : Expr left, Token operator, Expr right" ...
         
@@ -147,6 +160,15 @@ public class GenerateAst {
         }
         writer.println();
 
+        // Annotation fields are not part of the constructor,
+        // later passes (e.g. the Resolver) fill them in on the existing node.
+        if (!annotationList.isEmpty()) {
+            for (String annotation : annotationList.split(", ")) {
+                writer.println(indents(2) + annotation + ";");
+            }
+            writer.println();
+        }
+
         // Visitor pattern
         writer.println(indents(2) + "@Override");
         writer.println(indents(2) + "<R> R accept(Visitor<R> visitor){");
@@ -0,0 +1,152 @@
+package com.craftinginterpreters.tool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Runs every program of the benchmark corpus (bench/ by default) on each engine in this JVM, the way
+// 'jlox script' runs it the first time, front end included (see Benchmark.measure), and compares the median time
+// and the allocation per run against a stored baseline.
+// A program that got slower or allocates more by more than the threshold is a regression, and the exit code
+// is 1 then, so a build can fail on it. The results go to results.json in the corpus;
+// --save makes them the new baseline. The peak heap is reported, but too noisy to compare.
+public class Regression {
+    // one result per line, "engine/program": {"ms": 1.0, "allocMB": 2.0, "peakHeapMB": 3.0}
+    private static final Pattern RESULT = Pattern.compile(
+        "\"([^\"]+)\": \\{\"ms\": ([0-9.]+), \"allocMB\": ([0-9.]+), \"peakHeapMB\": ([0-9.]+)\\}");
+
+    private static void usage() {
+        System.err.println("Usage: regression [--engines=tree,closure,vm] [--runs=N] [--warmup=N] [--threshold=PERCENT]");
+        System.err.println("                  [--baseline=FILE] [--save] [--no-jit] [--no-optimize] [directory]");
+        System.exit(64);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] engines = {"tree", "closure", "vm"};
+        int runs = 5;
+        int warmup = 2;
+        double threshold = 10;
+        String baselineFile = null;
+        boolean save = false;
+        List<String> loxFlags = new ArrayList<>();
+        Path directory = Paths.get("bench");
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--engines=")) {
+                    engines = arg.substring("--engines=".length()).split(",");
+                } else if (arg.startsWith("--runs=")) {
+                    runs = Integer.parseInt(arg.substring("--runs=".length()));
+                } else if (arg.startsWith("--warmup=")) {
+                    warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+                } else if (arg.startsWith("--threshold=")) {
+                    threshold = Double.parseDouble(arg.substring("--threshold=".length()));
+                } else if (arg.startsWith("--baseline=")) {
+                    baselineFile = arg.substring("--baseline=".length());
+                } else if (arg.equals("--save")) {
+                    save = true;
+                } else if (arg.equals("--no-jit") || arg.equals("--no-optimize")) {
+                    // passed on to every run
+                    loxFlags.add(arg);
+                } else if (!arg.startsWith("--")) {
+                    directory = Paths.get(arg);
+                } else {
+                    usage();
+                }
+            }
+        } catch (NumberFormatException error) {
+            usage();
+        }
+        if (runs < 1 || warmup < 0) usage();
+
+        Path baselinePath = baselineFile != null ? Paths.get(baselineFile) : directory.resolve("baseline.json");
+        Map<String, Benchmark.Measurement> baseline = Files.exists(baselinePath) ? read(baselinePath) : Map.of();
+
+        List<Path> programs;
+        try (Stream<Path> files = Files.list(directory)) {
+            programs = files.filter(file -> file.toString().endsWith(".lox")).sorted().collect(Collectors.toList());
+        }
+
+        System.out.printf("%-24s %10s %8s %12s %8s %12s%n", "benchmark", "ms/run", "change", "MB alloc/run",
+            "change", "MB peak heap");
+        Map<String, Benchmark.Measurement> results = new LinkedHashMap<>();
+        List<String> regressions = new ArrayList<>();
+        for (String engine : engines) {
+            for (Path program : programs) {
+                String name = engine + "/" + program.getFileName().toString().replaceFirst("\\.lox$", "");
+                List<String> loxArgs = new ArrayList<>(loxFlags);
+                loxArgs.add("--engine=" + engine);
+                loxArgs.add(program.toString());
+
+                Benchmark.Measurement measurement = Benchmark.measure(loxArgs.toArray(new String[0]), warmup, runs);
+                results.put(name, measurement);
+
+                Benchmark.Measurement before = baseline.get(name);
+                double time = change(before == null ? 0 : before.millis, measurement.millis);
+                double allocation = change(before == null ? 0 : before.allocatedMB, measurement.allocatedMB);
+                boolean regressed = time > threshold || allocation > threshold;
+                if (regressed) regressions.add(name);
+                System.out.printf("%-24s %10.1f %8s %12.1f %8s %12.1f%s%n", name,
+                    measurement.millis, percent(time), measurement.allocatedMB, percent(allocation),
+                    measurement.peakHeapMB, regressed ? "  REGRESSION" : "");
+            }
+        }
+
+        write(directory.resolve("results.json"), results);
+        if (save) {
+            write(baselinePath, results);
+            System.out.println("Saved as the baseline in " + baselinePath + ".");
+        } else if (baseline.isEmpty()) {
+            System.out.println("No baseline in " + baselinePath + ", --save makes these results the baseline.");
+        }
+
+        if (!regressions.isEmpty()) {
+            System.out.printf("%d regression(s) over %.0f%%: %s%n", regressions.size(), threshold,
+                String.join(", ", regressions));
+            System.exit(1);
+        }
+    }
+
+    // the change in percent, NaN when there is nothing to compare with
+    private static double change(double before, double after) {
+        if (before <= 0) return Double.NaN;
+        return (after - before) / before * 100;
+    }
+
+    private static String percent(double change) {
+        return Double.isNaN(change) ? "-" : String.format("%+.1f%%", change);
+    }
+
+    private static void write(Path file, Map<String, Benchmark.Measurement> results) throws IOException {
+        StringBuilder json = new StringBuilder("{\n");
+        int i = 0;
+        for (Map.Entry<String, Benchmark.Measurement> entry : results.entrySet()) {
+            Benchmark.Measurement measurement = entry.getValue();
+            json.append(String.format(Locale.ROOT, "  \"%s\": {\"ms\": %.3f, \"allocMB\": %.3f, \"peakHeapMB\": %.3f}%s%n",
+                entry.getKey(), measurement.millis, measurement.allocatedMB, measurement.peakHeapMB,
+                ++i < results.size() ? "," : ""));
+        }
+        json.append("}\n");
+        Files.writeString(file, json);
+    }
+
+    // reads back what write() wrote, one result per line
+    private static Map<String, Benchmark.Measurement> read(Path file) throws IOException {
+        Map<String, Benchmark.Measurement> results = new LinkedHashMap<>();
+        Matcher matcher = RESULT.matcher(Files.readString(file));
+        while (matcher.find()) {
+            results.put(matcher.group(1), new Benchmark.Measurement(Double.parseDouble(matcher.group(2)),
+                Double.parseDouble(matcher.group(3)), Double.parseDouble(matcher.group(4))));
+        }
+        return results;
+    }
+}
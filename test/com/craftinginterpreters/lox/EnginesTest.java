@@ -0,0 +1,392 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Runs small programs on every engine and compares what they print, on stdout and stderr, and their exit code
+// with the plain tree-walking Interpreter without the Optimizer. The programs poke at the places where the
+// engines reuse or skip environments: the frame stack for the scopes no closure captures (Resolver.Scope),
+// the scopes that declare nothing, and the tail-call trampoline, and at the errors reported from imported modules.
+// Lox.main exits the JVM, so each run is a process.
+class EnginesTest {
+    private static final List<String> REFERENCE = List.of("--engine=tree", "--no-optimize");
+    private static final List<List<String>> ENGINES = List.of(
+        List.of("--engine=tree"),
+        List.of("--engine=tree", "--no-jit"),
+        List.of("--engine=closure"),
+        List.of("--engine=closure", "--no-jit"),
+        List.of("--engine=closure", "--no-optimize"),
+        List.of("--engine=vm"),
+        List.of("--engine=vm", "--no-optimize"));
+
+    @TempDir
+    Path directory;
+
+    // what one run printed and how it ended
+    private static class Result {
+        final String out;
+        final String err;
+        final int exitCode;
+
+        Result(String out, String err, int exitCode) {
+            this.out = out;
+            this.err = err;
+            this.exitCode = exitCode;
+        }
+    }
+
+    @Test
+    void closureCreatedInLoopBody() throws Exception {
+        // every iteration's block is captured on its own, the loop variable is one for the whole loop
+        assertSameOnEveryEngine("""
+            var first;
+            var second;
+            var third;
+            for (var i = 1; i <= 3; i = i + 1) {
+              var j = i * 10;
+              fun show() { return i + j; }
+              if (i == 1) first = show;
+              if (i == 2) second = show;
+              if (i == 3) third = show;
+            }
+            print first();
+            print second();
+            print third();
+
+            var counter;
+            var k = 0;
+            while (k < 3) {
+              var start = k;
+              fun count() {
+                start = start + 1;
+                return start;
+              }
+              if (k == 1) counter = count;
+              k = k + 1;
+            }
+            print counter();
+            print counter();
+            """, "14\n24\n34\n2\n3\n");
+    }
+
+    @Test
+    void closureCreatedInNestedBlockOfPooledCall() throws Exception {
+        // the closures keep their blocks and the calls around them alive after noise() reused the frames
+        assertSameOnEveryEngine("""
+            fun noise(x) {
+              var y = x * 2;
+              {
+                var z = y + 1;
+                return z;
+              }
+            }
+
+            fun outer(n) {
+              var a = n;
+              {
+                var b = a + 1;
+                fun get() { return a + b; }
+                return get;
+              }
+            }
+
+            fun keep(n) {
+              var unused = n * 100;
+              {
+                var b = n;
+                {
+                  var c = b + unused;
+                  fun get() { return c; }
+                  noise(99);
+                  return get;
+                }
+              }
+            }
+
+            var g1 = outer(1);
+            var g2 = outer(10);
+            var k = keep(5);
+            noise(1);
+            noise(2);
+            print g1();
+            print g2();
+            print k();
+            """, "3\n21\n505\n");
+    }
+
+    @Test
+    void boundMethodCapturedFromPooledFrame() throws Exception {
+        assertSameOnEveryEngine("""
+            class Counter {
+              init(n) { this.n = n; }
+              get() { return this.n; }
+              later() {
+                fun read() { return this.n; }
+                return read;
+              }
+            }
+
+            fun noise(x) {
+              var y = x * 2;
+              return y + 1;
+            }
+
+            fun method(n) {
+              var c = Counter(n);
+              var m = c.get;
+              return m;
+            }
+
+            fun nested(n) {
+              var unused = n;
+              {
+                var c = Counter(n + unused);
+                return c.get;
+              }
+            }
+
+            fun closure(n) {
+              var c = Counter(n);
+              return c.later();
+            }
+
+            var m1 = method(1);
+            var m2 = method(2);
+            var m3 = nested(3);
+            var m4 = closure(4);
+            noise(5);
+            print m1();
+            print m2();
+            print m3();
+            print m4();
+            """, "1\n2\n6\n4\n");
+    }
+
+    @Test
+    void runtimeErrorMidBlock() throws Exception {
+        assertSameOnEveryEngine("""
+            fun depth(n) {
+              var a = n;
+              {
+                var b = a;
+                if (n == 0) {
+                  var c = b;
+                  print "before";
+                  c.field;
+                  print "after";
+                }
+                return depth(n - 1) + b;
+              }
+            }
+            print "start";
+            depth(5);
+            print "unreachable";
+            """, "start\nbefore\n", "Only instance have properties.\n[line 8]\n", 70);
+
+        // the REPL goes on after the error, with the frames of the failed calls given back
+        Path script = directory.resolve("repl.txt");
+        Files.writeString(script, String.join("\n",
+            "fun depth(n) { var a = n; { var b = a; if (n == 0) { var c = b; c.field; } return depth(n - 1) + b; } }",
+            "depth(5);",
+            "fun sum(n) { var total = 0; for (var i = 1; i <= n; i = i + 1) { var sq = i * i; total = total + sq; } return total; }",
+            "print sum(4);",
+            "fun later(n) { var x = n; { var y = x + 1; fun f() { return x + y; } return f; } }",
+            "print later(3)();",
+            "depth(3);",
+            "print sum(3);",
+            ""));
+        Result reference = run(REFERENCE, null, script);
+        assertEquals("> > > > 30\n> > 7\n> > 14\n> ", reference.out);
+        for (List<String> flags : ENGINES) {
+            assertSame(reference, run(flags, null, script), flags);
+        }
+    }
+
+    @Test
+    void frameStackUnwoundAfterRuntimeError() {
+        List<Stmt> statements = parse("""
+            fun depth(n) {
+              var a = n;
+              {
+                var b = a;
+                for (var i = 0; i < 2; i = i + 1) {
+                  var c = b + i;
+                  if (n == 0) c.field;
+                }
+                return depth(n - 1) + b;
+              }
+            }
+            depth(10);
+            """);
+
+        Interpreter interpreter = new Interpreter();
+        interpreter.interpret(statements);
+        assertEquals(0, interpreter.frames.depth(), "tree");
+        new NodeCompiler(interpreter).interpret(statements);
+        assertEquals(0, interpreter.frames.depth(), "closure");
+    }
+
+    @Test
+    void scopesWithoutDeclarations() throws Exception {
+        // the blocks that declare nothing get no environment, the distances of the variables around them skip them
+        assertSameOnEveryEngine("""
+            var g = "global";
+            fun f(a) {
+              { { print a; } }
+              var b = a + 1;
+              {
+                print b;
+                {
+                  var c = b + 1;
+                  { print a + b + c; }
+                }
+              }
+              for (; b < 4; b = b + 1) { print b; }
+              while (a < 2) {
+                a = a + 1;
+                { print a; }
+              }
+              fun inner() { { return a + b; } }
+              return inner();
+            }
+            fun empty() {
+              { }
+              return g;
+            }
+            print f(1);
+            print empty();
+            {
+              var g = "block";
+              { { print g; } }
+            }
+            print g;
+            """, "1\n2\n6\n2\n3\n2\n6\nglobal\nblock\nglobal\n");
+    }
+
+    @Test
+    void tailCalls() throws Exception {
+        String program = """
+            fun count(n, acc) {
+              if (n == 0) return acc;
+              {
+                var next = n - 1;
+                return count(next, acc + 1);
+              }
+            }
+
+            fun isEven(n) {
+              if (n == 0) return true;
+              return isOdd(n - 1);
+            }
+
+            fun isOdd(n) {
+              if (n == 0) return false;
+              return isEven(n - 1);
+            }
+
+            class Walker {
+              step(n) {
+                if (n == 0) return "done";
+                return this.step(n - 1);
+              }
+            }
+
+            print count(DEPTH, 0);
+            print isEven(DEPTH + 1);
+            print Walker().step(DEPTH);
+            """;
+        assertSameOnEveryEngine(program.replace("DEPTH", "5000"), "5000\nfalse\ndone\n");
+
+        // far deeper than the Java stack allows without the trampoline; the VM keeps its own frame limit
+        Path script = write(program.replace("DEPTH", "200000"));
+        Result reference = run(REFERENCE, script, null);
+        assertEquals("200000\nfalse\ndone\n", reference.out);
+        for (List<String> flags : ENGINES) {
+            if (flags.contains("--engine=vm")) continue;
+            assertSame(reference, run(flags, script, null), flags);
+        }
+    }
+
+    @Test
+    void errorsInImportedModules() throws Exception {
+        // an error in a module names it by its path from the working directory, one in the main script doesn't
+        Path lib = Files.createDirectory(directory.resolve("lib"));
+        Files.writeString(lib.resolve("syntax.lox"), "print 0;\nvar = ;\n");
+        Files.writeString(lib.resolve("resolve.lox"), "fun f() {\n  return this;\n}\n");
+        Files.writeString(lib.resolve("runtime.lox"), "fun boom() {\n  print \"in boom\";\n  return 1 + nil;\n}\n");
+        Files.writeString(lib.resolve("missing.lox"), "import \"nope.lox\";\n");
+
+        assertSameOnEveryEngine("import \"lib/syntax.lox\";\nprint 1;\n", "",
+            "[lib/syntax.lox line 2] Error at '=': Expected variable name.\n", 65);
+        assertSameOnEveryEngine("import \"lib/resolve.lox\";\nprint 1;\n", "",
+            "[lib/resolve.lox line 2] Error at 'this': Can't use 'this' outside of a class\n", 65);
+        assertSameOnEveryEngine("import \"lib/runtime.lox\";\nprint \"main\";\nboom();\n", "main\nin boom\n",
+            "Operands must be two numbers or two strings.\n[lib/runtime.lox line 3]\n", 70);
+        assertSameOnEveryEngine("print 1;\nimport \"nope.lox\";\n", "",
+            "[line 2] Error at '\"nope.lox\"': Can't read module 'nope.lox'.\n", 65);
+        assertSameOnEveryEngine("import \"lib/missing.lox\";\n", "",
+            "[lib/missing.lox line 1] Error at '\"nope.lox\"': Can't read module 'nope.lox'.\n", 65);
+    }
+
+    private void assertSameOnEveryEngine(String program, String expected) throws Exception {
+        assertSameOnEveryEngine(program, expected, "", 0);
+    }
+
+    private void assertSameOnEveryEngine(String program, String expectedOut, String expectedErr, int expectedExitCode)
+            throws Exception {
+        Path script = write(program);
+        Result reference = run(REFERENCE, script, null);
+        assertSame(new Result(expectedOut, expectedErr, expectedExitCode), reference, REFERENCE);
+        for (List<String> flags : ENGINES) {
+            assertSame(reference, run(flags, script, null), flags);
+        }
+    }
+
+    private static void assertSame(Result expected, Result actual, List<String> flags) {
+        assertEquals(expected.out, actual.out, "stdout with " + flags);
+        assertEquals(expected.err, actual.err, "stderr with " + flags);
+        assertEquals(expected.exitCode, actual.exitCode, "exit code with " + flags);
+    }
+
+    private Path write(String program) throws IOException {
+        Path script = Files.createTempFile(directory, "program", ".lox");
+        Files.writeString(script, program);
+        return script;
+    }
+
+    // 'jlox flags script', or the REPL reading 'input' without a script
+    private Result run(List<String> flags, Path script, Path input) throws Exception {
+        List<String> command = new ArrayList<>(Arrays.asList(
+            Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp", System.getProperty("java.class.path"), Lox.class.getName()));
+        command.addAll(flags);
+        if (script != null) command.add(script.toString());
+
+        File out = Files.createTempFile(directory, "out", ".txt").toFile();
+        File err = Files.createTempFile(directory, "err", ".txt").toFile();
+        ProcessBuilder builder = new ProcessBuilder(command)
+            .directory(directory.toFile())
+            .redirectOutput(out)
+            .redirectError(err);
+        if (input != null) builder.redirectInput(input.toFile());
+        int exitCode = builder.start().waitFor();
+        return new Result(Files.readString(out.toPath()), Files.readString(err.toPath()), exitCode);
+    }
+
+    private static List<Stmt> parse(String program) {
+        List<Stmt> statements = new Parser(new Scanner(program)).parse();
+        new Resolver().resolve(statements);
+        return statements;
+    }
+}